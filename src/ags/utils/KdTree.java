@@ -21,8 +21,8 @@ package ags.utils;
 
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * <p>
@@ -47,21 +47,34 @@ public abstract class KdTree<T> {
 	private final int dimensions;
 	private final KdTree<T> parent;
 	// Root only
-	private final LinkedList<double[]> locationStack;
+	private final ReentrantReadWriteLock lock;
 	private final int sizeLimit;
+	/*
+	 * Ring buffer of the points in the order they were added, only kept when
+	 * the tree has a size limit. The oldest point is at windowHead, and the
+	 * number of points in it is the size of the tree.
+	 */
+	private final double[] windowPoints;
+	private final Object[] windowData;
+	private int windowHead;
 	// Leaf only
-	private double[][] locations;
+	/*
+	 * The coordinates of every point in the leaf packed point after point into
+	 * one array, so scanning a leaf walks memory linearly. The point at index i
+	 * starts at points[i * dimensions] and its value is data[i].
+	 */
+	private double[] points;
 	private Object[] data;
 	private int locationCount;
 	// Stem only
 	private KdTree<T> left, right;
 	private int splitDimension;
 	private double splitValue;
+	/* Points added or removed below this stem since it was last built */
+	private int changes;
 	// Bounds
 	private double[] minLimit, maxLimit;
 	private boolean singularity;
-	// Temporary
-	private Status status;
 
 	/**
 	 * Construct a RTree with a given number of dimensions and a limit on
@@ -71,34 +84,43 @@ public abstract class KdTree<T> {
 	private KdTree(int dimensions, int sizeLimit) {
 		this.dimensions = dimensions;
 		// Init as leaf
-		this.locations = new double[bucketSize][];
+		this.points = new double[bucketSize * dimensions];
 		this.data = new Object[bucketSize];
 		this.locationCount = 0;
 		this.singularity = true;
 		// Init as root
 		this.parent = null;
+		this.lock = new ReentrantReadWriteLock();
 		this.sizeLimit = sizeLimit;
 		if (sizeLimit > 0) {
-			this.locationStack = new LinkedList<double[]>();
+			// One extra slot for the point added just before the oldest is removed
+			this.windowPoints = new double[(sizeLimit + 1) * dimensions];
+			this.windowData = new Object[sizeLimit + 1];
 		} else {
-			this.locationStack = null;
+			this.windowPoints = null;
+			this.windowData = null;
 		}
 	}
 
 	/**
-	 * Constructor for child nodes. Internal use only.
+	 * Constructor for child nodes. Internal use only. A capacity of 0 leaves
+	 * the storage to be set up by the caller.
 	 */
-	private KdTree(KdTree<T> parent, boolean right) {
+	private KdTree(KdTree<T> parent, int capacity) {
 		this.dimensions = parent.dimensions;
 		// Init as leaf
-		this.locations = new double[Math.max(bucketSize, parent.locationCount)][];
-		this.data = new Object[Math.max(bucketSize, parent.locationCount)];
+		if (capacity > 0) {
+			this.points = new double[capacity * dimensions];
+			this.data = new Object[capacity];
+		}
 		this.locationCount = 0;
 		this.singularity = true;
 		// Init as non-root
 		this.parent = parent;
-		this.locationStack = null;
+		this.lock = null;
 		this.sizeLimit = 0;
+		this.windowPoints = null;
+		this.windowData = null;
 	}
 
 	/**
@@ -109,12 +131,110 @@ public abstract class KdTree<T> {
 	}
 
 	/**
-	 * Add a point and associated value to the tree
+	 * Get the values of every point in the tree. A size limited tree returns
+	 * them oldest first, otherwise they are in no particular order.
+	 */
+	@SuppressWarnings("unchecked")
+	public List<T> getValues() {
+		lock.readLock().lock();
+		try {
+			ArrayList<T> values = new ArrayList<T>(locationCount);
+			if (sizeLimit > 0) {
+				for (int i = 0; i < locationCount; i++) {
+					values.add((T) windowData[(windowHead + i) % windowData.length]);
+				}
+			} else {
+				gatherValues(values);
+			}
+			return values;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Adds the values of every point below this node to the list.
+	 */
+	@SuppressWarnings("unchecked")
+	private void gatherValues(List<T> values) {
+		if (points == null) {
+			left.gatherValues(values);
+			right.gatherValues(values);
+			return;
+		}
+		for (int i = 0; i < locationCount; i++) {
+			values.add((T) data[i]);
+		}
+	}
+
+	/**
+	 * Add a point and associated value to the tree. This may be called while
+	 * other threads are querying the tree, they wait for the point to be added.
 	 */
 	public void addPoint(double[] location, T value) {
+		lock.writeLock().lock();
+		try {
+			insert(location, value);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Add many points and their associated values to the tree at once. The
+	 * whole tree is built again from the top down, splitting each node at the
+	 * median of its widest axis. This is much faster than adding the points
+	 * one at a time and gives a balanced tree no matter the order they come
+	 * in. If the tree has a size limit only the newest points are kept, the
+	 * given points being newer than those already in the tree.
+	 */
+	public void addPoints(double[][] locations, T[] values) {
+		lock.writeLock().lock();
+		try {
+			int existing = locationCount;
+			int total = existing + locations.length;
+			// Index of the first point kept, counting old points first
+			int first = 0;
+			if (sizeLimit > 0 && total > sizeLimit) {
+				first = total - sizeLimit;
+			}
+			int count = total - first;
+			double[] packed = new double[count * dimensions];
+			Object[] packedValues = new Object[count];
+			int n = 0;
+			if (sizeLimit > 0) {
+				// Take the old points from the window, so they stay in order
+				for (int i = first; i < existing; i++, n++) {
+					int slot = (windowHead + i) % windowData.length;
+					System.arraycopy(windowPoints, slot * dimensions, packed, n * dimensions, dimensions);
+					packedValues[n] = windowData[slot];
+				}
+			} else {
+				n = gather(packed, packedValues, 0);
+			}
+			for (int i = Math.max(0, first - existing); i < locations.length; i++, n++) {
+				System.arraycopy(locations[i], 0, packed, n * dimensions, dimensions);
+				packedValues[n] = values[i];
+			}
+			if (sizeLimit > 0) {
+				System.arraycopy(packed, 0, windowPoints, 0, count * dimensions);
+				System.arraycopy(packedValues, 0, windowData, 0, count);
+				Arrays.fill(windowData, count, windowData.length, null);
+				windowHead = 0;
+			}
+			build(packed, packedValues, new double[count], 0, count);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Adds a point to the tree, the caller must hold the write lock.
+	 */
+	private void insert(double[] location, T value) {
 		KdTree<T> cursor = this;
-		while (cursor.locations == null || cursor.locationCount >= cursor.locations.length) {
-			if (cursor.locations != null) {
+		while (cursor.points == null || cursor.locationCount >= cursor.data.length) {
+			if (cursor.points != null) {
 				cursor.splitDimension = cursor.findWidestAxis();
 				cursor.splitValue = (cursor.minLimit[cursor.splitDimension] + cursor.maxLimit[cursor.splitDimension]) * 0.5;
 				// Never split on infinity or NaN
@@ -128,10 +248,10 @@ public abstract class KdTree<T> {
 				// Don't split node if it has no width in any axis. Double the
 				// bucket size instead
 				if (cursor.minLimit[cursor.splitDimension] == cursor.maxLimit[cursor.splitDimension]) {
-					double[][] newLocations = new double[cursor.locations.length * 2][];
-					System.arraycopy(cursor.locations, 0, newLocations, 0, cursor.locationCount);
-					cursor.locations = newLocations;
-					Object[] newData = new Object[newLocations.length];
+					double[] newPoints = new double[cursor.points.length * 2];
+					System.arraycopy(cursor.points, 0, newPoints, 0, cursor.locationCount * dimensions);
+					cursor.points = newPoints;
+					Object[] newData = new Object[cursor.data.length * 2];
 					System.arraycopy(cursor.data, 0, newData, 0, cursor.locationCount);
 					cursor.data = newData;
 					break;
@@ -142,73 +262,78 @@ public abstract class KdTree<T> {
 					cursor.splitValue = cursor.minLimit[cursor.splitDimension];
 				}
 				// Create child leaves
-				KdTree<T> left = new ChildNode(cursor, false);
-				KdTree<T> right = new ChildNode(cursor, true);
+				int capacity = Math.max(bucketSize, cursor.locationCount);
+				KdTree<T> left = new ChildNode(cursor, capacity);
+				KdTree<T> right = new ChildNode(cursor, capacity);
 				// Move locations into children
-				for (int i = 0; i < cursor.locationCount; i++) {
-					double[] oldLocation = cursor.locations[i];
-					Object oldData = cursor.data[i];
-					if (oldLocation[cursor.splitDimension] > cursor.splitValue) {
+				for (int i = 0, offset = 0; i < cursor.locationCount; i++, offset += dimensions) {
+					if (cursor.points[offset + cursor.splitDimension] > cursor.splitValue) {
 						// Right
-						right.locations[right.locationCount] = oldLocation;
-						right.data[right.locationCount] = oldData;
-						right.locationCount++;
-						right.extendBounds(oldLocation);
+						right.appendPoint(cursor.points, offset, cursor.data[i]);
 					} else {
 						// Left
-						left.locations[left.locationCount] = oldLocation;
-						left.data[left.locationCount] = oldData;
-						left.locationCount++;
-						left.extendBounds(oldLocation);
+						left.appendPoint(cursor.points, offset, cursor.data[i]);
 					}
 				}
 				// Make into stem
 				cursor.left = left;
 				cursor.right = right;
-				cursor.locations = null;
+				cursor.points = null;
 				cursor.data = null;
+				cursor.changes = 0;
 			}
 			cursor.locationCount++;
-			cursor.extendBounds(location);
+			cursor.changes++;
+			cursor.extendBounds(location, 0);
 			if (location[cursor.splitDimension] > cursor.splitValue) {
 				cursor = cursor.right;
 			} else {
 				cursor = cursor.left;
 			}
 		}
-		cursor.locations[cursor.locationCount] = location;
-		cursor.data[cursor.locationCount] = value;
-		cursor.locationCount++;
-		cursor.extendBounds(location);
+		cursor.appendPoint(location, 0, value);
 		if (this.sizeLimit > 0) {
-			this.locationStack.add(location);
+			int tail = (windowHead + locationCount - 1) % windowData.length;
+			System.arraycopy(location, 0, windowPoints, tail * dimensions, dimensions);
+			windowData[tail] = value;
 			if (this.locationCount > this.sizeLimit) {
 				this.removeOld();
 			}
 		}
 	}
 
+	/**
+	 * Appends a point to the end of this leaf, the leaf must have room for it.
+	 */
+	private final void appendPoint(double[] source, int offset, Object value) {
+		System.arraycopy(source, offset, points, locationCount * dimensions, dimensions);
+		data[locationCount] = value;
+		locationCount++;
+		extendBounds(source, offset);
+	}
+
 	/**
 	 * Extends the bounds of this node do include a new location
 	 */
-	private final void extendBounds(double[] location) {
+	private final void extendBounds(double[] location, int offset) {
 		if (minLimit == null) {
 			minLimit = new double[dimensions];
-			System.arraycopy(location, 0, minLimit, 0, dimensions);
+			System.arraycopy(location, offset, minLimit, 0, dimensions);
 			maxLimit = new double[dimensions];
-			System.arraycopy(location, 0, maxLimit, 0, dimensions);
+			System.arraycopy(location, offset, maxLimit, 0, dimensions);
 			return;
 		}
 		for (int i = 0; i < dimensions; i++) {
-			if (Double.isNaN(location[i])) {
+			double value = location[offset + i];
+			if (Double.isNaN(value)) {
 				minLimit[i] = Double.NaN;
 				maxLimit[i] = Double.NaN;
 				singularity = false;
-			} else if (minLimit[i] > location[i]) {
-				minLimit[i] = location[i];
+			} else if (minLimit[i] > value) {
+				minLimit[i] = value;
 				singularity = false;
-			} else if (maxLimit[i] < location[i]) {
-				maxLimit[i] = location[i];
+			} else if (maxLimit[i] < value) {
+				maxLimit[i] = value;
 				singularity = false;
 			}
 		}
@@ -235,42 +360,297 @@ public abstract class KdTree<T> {
 	}
 
 	/**
-	 * Remove the oldest value from the tree. Note: This cannot trim the bounds
-	 * of nodes, nor empty nodes, and thus you can't expect it to perfectly
-	 * preserve the speed of the tree as you keep adding.
+	 * Remove the oldest value from the tree. The bounds of the nodes above the
+	 * point are shrunk where the point was on them, and the highest node on
+	 * the path that has become too small or too unbalanced is rebuilt, so the
+	 * speed of the tree is preserved as points come and go.
 	 */
 	private void removeOld() {
-		double[] location = this.locationStack.removeFirst();
+		int offset = windowHead * dimensions;
+		Object value = windowData[windowHead];
+		windowData[windowHead] = null;
+		windowHead = (windowHead + 1) % windowData.length;
 		KdTree<T> cursor = this;
 		// Find the node where the point is
-		while (cursor.locations == null) {
-			if (location[cursor.splitDimension] > cursor.splitValue) {
+		while (cursor.points == null) {
+			if (windowPoints[offset + cursor.splitDimension] > cursor.splitValue) {
 				cursor = cursor.right;
 			} else {
 				cursor = cursor.left;
 			}
 		}
-		for (int i = 0; i < cursor.locationCount; i++) {
-			if (cursor.locations[i] == location) {
-				System.arraycopy(cursor.locations, i + 1, cursor.locations, i, cursor.locationCount - i - 1);
-				cursor.locations[cursor.locationCount - 1] = null;
-				System.arraycopy(cursor.data, i + 1, cursor.data, i, cursor.locationCount - i - 1);
-				cursor.data[cursor.locationCount - 1] = null;
-				do {
-					cursor.locationCount--;
-					cursor = cursor.parent;
-				} while (cursor.parent != null);
+		int index = cursor.indexOf(windowPoints, offset, value);
+		if (index < 0) {
+			// If we got here... we couldn't find the value to remove. Weird...
+			return;
+		}
+		boolean changed = cursor.removeAt(index);
+		KdTree<T> rebuild = null;
+		for (cursor = cursor.parent; cursor != null; cursor = cursor.parent) {
+			cursor.locationCount--;
+			cursor.changes++;
+			// Only recalculate bounds as long as the child's actually shrank
+			if (changed) {
+				changed = cursor.recalculateBounds();
+			}
+			if (cursor.needsRebuild()) {
+				rebuild = cursor;
+			}
+		}
+		if (rebuild != null) {
+			rebuild.rebuild();
+		}
+	}
+
+	/**
+	 * Finds the index of a point in this leaf. Points are copied into the leaf,
+	 * so they are matched by value and coordinates. NaN coordinates match each
+	 * other.
+	 * 
+	 * @return the index of the point, or -1 if it is not in this leaf
+	 */
+	private final int indexOf(double[] location, int offset, Object value) {
+		search: for (int i = 0; i < locationCount; i++) {
+			if (data[i] != value) {
+				continue;
+			}
+			for (int j = 0, k = i * dimensions; j < dimensions; j++, k++) {
+				if (Double.doubleToLongBits(points[k]) != Double.doubleToLongBits(location[offset + j])) {
+					continue search;
+				}
+			}
+			return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * Removes the point at the given index from this leaf by moving the last
+	 * point into its place.
+	 * 
+	 * @return true if the bounds of this leaf changed
+	 */
+	private final boolean removeAt(int index) {
+		int last = locationCount - 1;
+		int offset = index * dimensions;
+		boolean onBounds = false;
+		for (int i = 0; i < dimensions; i++) {
+			double value = points[offset + i];
+			if (!(value > minLimit[i] && value < maxLimit[i])) {
+				onBounds = true;
+				break;
+			}
+		}
+		if (index != last) {
+			System.arraycopy(points, last * dimensions, points, offset, dimensions);
+			data[index] = data[last];
+		}
+		data[last] = null;
+		locationCount = last;
+		// A point inside the bounds cannot have been holding them out
+		return onBounds && recalculateBounds();
+	}
+
+	/**
+	 * Recalculates the bounds of this node from its points, or from the bounds
+	 * of its children if it is a stem. An empty node has no bounds.
+	 * 
+	 * @return true if the bounds changed
+	 */
+	private final boolean recalculateBounds() {
+		double[] oldMin = minLimit;
+		double[] oldMax = maxLimit;
+		minLimit = null;
+		maxLimit = null;
+		singularity = true;
+		if (points != null) {
+			for (int i = 0; i < locationCount; i++) {
+				extendBounds(points, i * dimensions);
+			}
+		} else {
+			includeBounds(left);
+			includeBounds(right);
+		}
+		return !Arrays.equals(oldMin, minLimit) || !Arrays.equals(oldMax, maxLimit);
+	}
+
+	/**
+	 * Extends the bounds of this stem to include those of the given child.
+	 */
+	private final void includeBounds(KdTree<T> child) {
+		if (child.locationCount == 0) {
+			return;
+		}
+		extendBounds(child.minLimit, 0);
+		extendBounds(child.maxLimit, 0);
+		singularity &= child.singularity;
+	}
+
+	/**
+	 * Determines if this stem should be rebuilt. That is if it holds few
+	 * enough points to be a leaf again, or if one side has grown to hold most
+	 * of its points. Rebuilding is held off until the stem has seen changes
+	 * in proportion to its size, so the cost stays amortized even when the
+	 * points cannot be split any more evenly.
+	 */
+	private final boolean needsRebuild() {
+		if (locationCount <= bucketSize / 2) {
+			return true;
+		}
+		if (locationCount < bucketSize * 4 || changes < locationCount / 2) {
+			return false;
+		}
+		int larger = Math.max(left.locationCount, right.locationCount);
+		return larger * 4 > locationCount * 3;
+	}
+
+	/**
+	 * Rebuilds the subtree below this node into a balanced one.
+	 */
+	private void rebuild() {
+		int count = locationCount;
+		double[] packed = new double[count * dimensions];
+		Object[] values = new Object[count];
+		gather(packed, values, 0);
+		build(packed, values, new double[count], 0, count);
+	}
+
+	/**
+	 * Copies every point below this node into the packed buffers.
+	 * 
+	 * @return the number of points in the buffers afterwards
+	 */
+	private int gather(double[] packed, Object[] values, int count) {
+		if (points != null) {
+			System.arraycopy(points, 0, packed, count * dimensions, locationCount * dimensions);
+			System.arraycopy(data, 0, values, count, locationCount);
+			return count + locationCount;
+		}
+		return right.gather(packed, values, left.gather(packed, values, count));
+	}
+
+	/**
+	 * Makes this node the root of a subtree holding the packed points between
+	 * from and to, splitting at the median of the widest axis. The points in
+	 * that range are reordered in place.
+	 */
+	private void build(double[] packed, Object[] values, double[] scratch, int from, int to) {
+		int count = to - from;
+		locationCount = count;
+		changes = 0;
+		minLimit = null;
+		maxLimit = null;
+		singularity = true;
+		for (int i = from; i < to; i++) {
+			extendBounds(packed, i * dimensions);
+		}
+		if (count > bucketSize) {
+			int dim = findWidestAxis();
+			for (int i = from; i < to; i++) {
+				scratch[i] = packed[i * dimensions + dim];
+			}
+			double split = select(scratch, from, to - 1, from + (count - 1) / 2);
+			int middle = partition(packed, values, from, to, dim, split);
+			if (middle == to) {
+				// The median is the largest value, fall back to the midpoint
+				split = (minLimit[dim] + maxLimit[dim]) * 0.5;
+				if (split == maxLimit[dim]) {
+					split = minLimit[dim];
+				}
+				middle = partition(packed, values, from, to, dim, split);
+			}
+			if (middle != from && middle != to) {
+				splitDimension = dim;
+				splitValue = split;
+				points = null;
+				data = null;
+				left = new ChildNode(this, 0);
+				right = new ChildNode(this, 0);
+				left.build(packed, values, scratch, from, middle);
+				right.build(packed, values, scratch, middle, to);
 				return;
 			}
 		}
-		// If we got here... we couldn't find the value to remove. Weird...
+		// Make into leaf, a group of points that cannot be split gets a larger bucket
+		int capacity = Math.max(bucketSize, count);
+		points = new double[capacity * dimensions];
+		data = new Object[capacity];
+		System.arraycopy(packed, from * dimensions, points, 0, count * dimensions);
+		System.arraycopy(values, from, data, 0, count);
+		left = null;
+		right = null;
+	}
+
+	/**
+	 * Moves the packed points between from and to whose coordinate on the
+	 * given axis is greater than the split value to the end of the range, the
+	 * same test used to choose a side when descending.
+	 * 
+	 * @return the index of the first point greater than the split value
+	 */
+	private int partition(double[] packed, Object[] values, int from, int to, int dim, double split) {
+		int i = from;
+		int j = to - 1;
+		while (true) {
+			while (i <= j && !(packed[i * dimensions + dim] > split)) {
+				i++;
+			}
+			while (i < j && packed[j * dimensions + dim] > split) {
+				j--;
+			}
+			if (i >= j) {
+				return i;
+			}
+			swapPacked(packed, values, i, j);
+			i++;
+			j--;
+		}
+	}
+
+	private void swapPacked(double[] packed, Object[] values, int a, int b) {
+		for (int i = a * dimensions, j = b * dimensions, end = i + dimensions; i < end; i++, j++) {
+			double tmp = packed[i];
+			packed[i] = packed[j];
+			packed[j] = tmp;
+		}
+		Object tmp = values[a];
+		values[a] = values[b];
+		values[b] = tmp;
 	}
 
 	/**
-	 * Enumeration representing the status of a node during the running
+	 * Finds the value that would be at index k between lo and hi inclusive if
+	 * that range was sorted, partially reordering the range.
 	 */
-	private static enum Status {
-		NONE, LEFTVISITED, RIGHTVISITED, ALLVISITED
+	private static double select(double[] values, int lo, int hi, int k) {
+		while (lo < hi) {
+			double pivot = values[(lo + hi) >>> 1];
+			int i = lo;
+			int j = hi;
+			while (i <= j) {
+				while (values[i] < pivot) {
+					i++;
+				}
+				while (values[j] > pivot) {
+					j--;
+				}
+				if (i <= j) {
+					double tmp = values[i];
+					values[i] = values[j];
+					values[j] = tmp;
+					i++;
+					j--;
+				}
+			}
+			if (k <= j) {
+				hi = j;
+			} else if (k >= i) {
+				lo = i;
+			} else {
+				break;
+			}
+		}
+		return values[k];
 	}
 
 	/**
@@ -291,91 +671,251 @@ public abstract class KdTree<T> {
 	 */
 	@SuppressWarnings("unchecked")
 	public List<Entry<T>> nearestNeighbor(double[] location, int count, boolean sequentialSorting) {
-		KdTree<T> cursor = this;
-		cursor.status = Status.NONE;
-		double range = Double.POSITIVE_INFINITY;
-		ResultHeap resultHeap = new ResultHeap(count);
-		do {
-			if (cursor.status == Status.ALLVISITED) {
-				// At a fully visited part. Move up the tree
-				cursor = cursor.parent;
-				continue;
+		double[] distances = new double[count];
+		Object[] values = new Object[count];
+		int found = nearestNeighbor(location, count, distances, values, sequentialSorting);
+		ArrayList<Entry<T>> results = new ArrayList<Entry<T>>(found);
+		if (sequentialSorting) {
+			// Sorted output is nearest first, the list has always been furthest first
+			for (int i = found - 1; i >= 0; i--) {
+				results.add(new Entry<T>(distances[i], (T) values[i]));
 			}
-			if (cursor.status == Status.NONE && cursor.locations != null) {
-				// At a leaf. Use the data.
-				if (cursor.locationCount > 0) {
-					if (cursor.singularity) {
-						double dist = pointDist(cursor.locations[0], location);
-						if (dist <= range) {
-							for (int i = 0; i < cursor.locationCount; i++) {
-								resultHeap.addValue(dist, cursor.data[i]);
-							}
-						}
-					} else {
-						for (int i = 0; i < cursor.locationCount; i++) {
-							double dist = pointDist(cursor.locations[i], location);
-							resultHeap.addValue(dist, cursor.data[i]);
-						}
-					}
-					range = resultHeap.getMaxDist();
+		} else {
+			for (int i = 0; i < found; i++) {
+				results.add(new Entry<T>(distances[i], (T) values[i]));
+			}
+		}
+		return results;
+	}
+
+	/**
+	 * Calculates the nearest 'count' points to 'location' without creating any
+	 * objects. The distances and values are written into the caller owned
+	 * buffers, which must hold at least 'count' elements. If sorted is true the
+	 * results are ordered nearest first, otherwise they are in heap order.
+	 * <p>
+	 * The search does not modify the tree, so any number of threads may query
+	 * it at once, each with its own buffers.
+	 * 
+	 * @return the number of results written into the buffers
+	 */
+	public int nearestNeighbor(double[] location, int count, double[] distances, Object[] values, boolean sorted) {
+		return query(location, count, distances, values, sorted, Double.POSITIVE_INFINITY, 1.0, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Calculates approximately the nearest 'count' points to 'location', in the
+	 * same way as the exact search. A subtree is skipped unless it could hold
+	 * a point nearer than the furthest result found so far divided by
+	 * (1 + epsilon), so no result is further than (1 + epsilon) times its
+	 * exact counterpart. Both are in the units of the tree's distance, which is
+	 * squared for the Euclidean trees. The search also stops once it has
+	 * scanned 'maxLeaves' leaves, putting a hard limit on its cost, in which
+	 * case the guarantee no longer holds.
+	 * 
+	 * @return the number of results written into the buffers
+	 */
+	public int nearestNeighbor(double[] location, int count, double[] distances, Object[] values, boolean sorted,
+			double epsilon, int maxLeaves) {
+		return query(location, count, distances, values, sorted, Double.POSITIVE_INFINITY, 1.0 + epsilon, maxLeaves);
+	}
+
+	/**
+	 * Finds the points within 'range' of 'location', in the units of the
+	 * tree's distance (squared for the Euclidean trees). The distances and
+	 * values are written into the caller owned buffers. If more points are
+	 * within range than the buffers can hold, the nearest ones are kept.
+	 * 
+	 * @return the number of results written into the buffers
+	 */
+	public int findWithinRange(double[] location, double range, double[] distances, Object[] values, boolean sorted) {
+		// Anything further than the range never gets past the placeholders
+		double bound = range + Math.ulp(range);
+		return query(location, Math.min(distances.length, values.length), distances, values, sorted, bound, 1.0,
+				Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Accumulates a statistic over the points found by a query, such as a sum
+	 * or histogram, so the caller does not have to go through the results.
+	 */
+	public static interface Reduction<T> {
+		/**
+		 * Adds a point found by the query.
+		 * 
+		 * @param distance
+		 *            the distance of the point from the query location
+		 * @param value
+		 *            the value associated with the point
+		 */
+		void add(double distance, T value);
+	}
+
+	/**
+	 * Reduces the nearest 'count' points to 'location'. The nearest points are
+	 * only known once the search is over, so they are collected into the
+	 * caller owned buffers first and then handed to the reduction.
+	 * 
+	 * @return the number of points reduced
+	 */
+	@SuppressWarnings("unchecked")
+	public int reduceNearest(double[] location, int count, double[] distances, Object[] values,
+			Reduction<? super T> reduction) {
+		int found = nearestNeighbor(location, count, distances, values, false);
+		for (int i = 0; i < found; i++) {
+			reduction.add(distances[i], (T) values[i]);
+		}
+		return found;
+	}
+
+	/**
+	 * Reduces every point within 'range' of 'location', in the units of the
+	 * tree's distance. Each point is handed to the reduction as soon as it is
+	 * found, so no buffers are needed at all.
+	 * 
+	 * @return the number of points reduced
+	 */
+	public int reduceWithinRange(double[] location, double range, Reduction<? super T> reduction) {
+		lock.readLock().lock();
+		try {
+			return reduce(this, location, range, reduction);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Reduces the points of the given subtree within 'range' of 'location'.
+	 * 
+	 * @return the number of points reduced
+	 */
+	@SuppressWarnings("unchecked")
+	private int reduce(KdTree<T> node, double[] location, double range, Reduction<? super T> reduction) {
+		if (node.locationCount == 0 || pointRegionDist(location, node.minLimit, node.maxLimit) > range) {
+			return 0;
+		}
+		if (node.points == null) {
+			return reduce(node.left, location, range, reduction) + reduce(node.right, location, range, reduction);
+		}
+		int found = 0;
+		if (node.singularity) {
+			double dist = pointDist(node.points, 0, location);
+			if (dist <= range) {
+				for (int i = 0; i < node.locationCount; i++) {
+					reduction.add(dist, (T) node.data[i]);
 				}
-				if (cursor.parent == null) {
-					break;
+				found = node.locationCount;
+			}
+		} else {
+			double[] points = node.points;
+			for (int i = 0, offset = 0; i < node.locationCount; i++, offset += dimensions) {
+				double dist = pointDist(points, offset, location);
+				if (dist <= range) {
+					reduction.add(dist, (T) node.data[i]);
+					found++;
 				}
-				cursor = cursor.parent;
-				continue;
 			}
-			// Going to descend
-			KdTree<T> nextCursor = null;
-			if (cursor.status == Status.NONE) {
-				// At a fresh node, descend the most probably useful direction
-				if (location[cursor.splitDimension] > cursor.splitValue) {
-					// Descend right
-					nextCursor = cursor.right;
-					cursor.status = Status.RIGHTVISITED;
+		}
+		return found;
+	}
+
+	/**
+	 * Runs a search for the nearest 'count' points nearer than 'bound'.
+	 */
+	private int query(double[] location, int count, double[] distances, Object[] values, boolean sorted,
+			double bound, double scale, int maxLeaves) {
+		if (count <= 0) {
+			return 0;
+		}
+		/*
+		 * The heap starts full of placeholders at the bound. That way the top
+		 * of the heap is always the distance a point has to beat, and the
+		 * search does not have to track how many values it holds.
+		 */
+		Arrays.fill(distances, 0, count, bound);
+		Arrays.fill(values, 0, count, null);
+		lock.readLock().lock();
+		try {
+			search(this, location, count, distances, values, scale, maxLeaves);
+		} finally {
+			lock.readLock().unlock();
+		}
+		// Drop the placeholders that were never replaced, they are the largest
+		int found = count;
+		while (found > 0 && !(distances[0] < bound)) {
+			found--;
+			heapSwap(distances, values, 0, found);
+			heapDown(distances, values, 0, found);
+		}
+		if (sorted) {
+			// In place heap sort, each largest value is moved past the end of
+			// the shrinking heap, leaving the buffers in ascending order
+			for (int n = found - 1; n > 0; n--) {
+				heapSwap(distances, values, 0, n);
+				heapDown(distances, values, 0, n);
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * Searches the given subtree, adding its nearest points to the heap held
+	 * in the buffers. A subtree is only searched if its distance times 'scale'
+	 * is within that of the furthest value in the heap. The traversal state
+	 * lives entirely on the call stack of the query, the depth of which is
+	 * bounded by the depth of the tree.
+	 * 
+	 * @return the number of leaves that may still be scanned
+	 */
+	private int search(KdTree<T> node, double[] location, int count, double[] distances, Object[] values,
+			double scale, int leaves) {
+		if (node.points != null) {
+			// At a leaf. Use the data.
+			if (node.locationCount > 0 && leaves > 0) {
+				if (node.singularity) {
+					double dist = pointDist(node.points, 0, location);
+					for (int i = 0; i < node.locationCount && dist < distances[0]; i++) {
+						heapReplaceTop(distances, values, count, dist, node.data[i]);
+					}
 				} else {
-					// Descend left;
-					nextCursor = cursor.left;
-					cursor.status = Status.LEFTVISITED;
-				}
-			} else if (cursor.status == Status.LEFTVISITED) {
-				// Left node visited, descend right.
-				nextCursor = cursor.right;
-				cursor.status = Status.ALLVISITED;
-			} else if (cursor.status == Status.RIGHTVISITED) {
-				// Right node visited, descend left.
-				nextCursor = cursor.left;
-				cursor.status = Status.ALLVISITED;
-			}
-			// Check if it's worth descending. Assume it is if it's sibling has
-			// not been visited yet.
-			if (cursor.status == Status.ALLVISITED) {
-				if (nextCursor.locationCount == 0
-						|| (!nextCursor.singularity && pointRegionDist(location, nextCursor.minLimit,
-								nextCursor.maxLimit) > range)) {
-					continue;
+					double[] points = node.points;
+					for (int i = 0, offset = 0; i < node.locationCount; i++, offset += dimensions) {
+						double dist = pointDist(points, offset, location);
+						if (dist < distances[0]) {
+							heapReplaceTop(distances, values, count, dist, node.data[i]);
+						}
+					}
 				}
+				leaves--;
 			}
-			// Descend down the tree
-			cursor = nextCursor;
-			cursor.status = Status.NONE;
-		} while (cursor.parent != null || cursor.status != Status.ALLVISITED);
-		ArrayList<Entry<T>> results = new ArrayList<Entry<T>>(resultHeap.values);
-		if (sequentialSorting) {
-			while (resultHeap.values > 0) {
-				resultHeap.removeLargest();
-				results.add(new Entry<T>(resultHeap.removedDist, (T) resultHeap.removedData));
-			}
+			return leaves;
+		}
+		// At a stem, descend the most probably useful direction first
+		KdTree<T> near, far;
+		if (location[node.splitDimension] > node.splitValue) {
+			near = node.right;
+			far = node.left;
 		} else {
-			for (int i = 0; i < resultHeap.values; i++) {
-				results.add(new Entry<T>(resultHeap.distance[i], (T) resultHeap.data[i]));
-			}
+			near = node.left;
+			far = node.right;
 		}
-		return results;
+		leaves = search(near, location, count, distances, values, scale, leaves);
+		// Check if it's worth descending the other side
+		if (far.locationCount == 0 || leaves <= 0) {
+			return leaves;
+		}
+		if (!far.singularity && pointRegionDist(location, far.minLimit, far.maxLimit) * scale > distances[0]) {
+			return leaves;
+		}
+		return search(far, location, count, distances, values, scale, leaves);
 	}
 
 	// Override in subclasses
-	protected abstract double pointDist(double[] p1, double[] p2);
+	/**
+	 * Distance between the packed point starting at points[offset] and the
+	 * given location.
+	 */
+	protected abstract double pointDist(double[] points, int offset, double[] location);
 
 	protected abstract double pointRegionDist(double[] point, double[] min, double[] max);
 
@@ -387,12 +927,12 @@ public abstract class KdTree<T> {
 	 * Internal class for child nodes
 	 */
 	private class ChildNode extends KdTree<T> {
-		private ChildNode(KdTree<T> parent, boolean right) {
-			super(parent, right);
+		private ChildNode(KdTree<T> parent, int capacity) {
+			super(parent, capacity);
 		}
 
 		// Distance measurements are always called from the root node
-		protected double pointDist(double[] p1, double[] p2) {
+		protected double pointDist(double[] points, int offset, double[] location) {
 			throw new IllegalStateException();
 		}
 
@@ -421,10 +961,10 @@ public abstract class KdTree<T> {
 			return weights[i];
 		}
 
-		protected double pointDist(double[] p1, double[] p2) {
+		protected double pointDist(double[] points, int offset, double[] location) {
 			double d = 0;
-			for (int i = 0; i < p1.length; i++) {
-				double diff = (p1[i] - p2[i]) * weights[i];
+			for (int i = 0; i < location.length; i++) {
+				double diff = (points[offset + i] - location[i]) * weights[i];
 				if (!Double.isNaN(diff)) {
 					d += diff * diff;
 				}
@@ -457,10 +997,10 @@ public abstract class KdTree<T> {
 			super(dimensions, sizeLimit);
 		}
 
-		protected double pointDist(double[] p1, double[] p2) {
+		protected double pointDist(double[] points, int offset, double[] location) {
 			double d = 0;
-			for (int i = 0; i < p1.length; i++) {
-				double diff = (p1[i] - p2[i]);
+			for (int i = 0; i < location.length; i++) {
+				double diff = (points[offset + i] - location[i]);
 				if (!Double.isNaN(diff)) {
 					d += diff * diff;
 				}
@@ -485,90 +1025,40 @@ public abstract class KdTree<T> {
 		}
 	}
 
-	/**
-	 * Class for tracking up to 'size' closest values
+	/*
+	 * The result heap is a max heap on distance kept directly in the caller's
+	 * buffers, so that a query does not have to allocate anything to track its
+	 * closest values.
 	 */
-	private static class ResultHeap {
-		private final Object[] data;
-		private final double[] distance;
-		private final int size;
-		private int values;
-		public Object removedData;
-		public double removedDist;
-
-		public ResultHeap(int size) {
-			this.data = new Object[size];
-			this.distance = new double[size];
-			this.size = size;
-			this.values = 0;
-		}
 
-		public void addValue(double dist, Object value) {
-			// If there is still room in the heap
-			if (values < size) {
-				// Insert new value at the end
-				data[values] = value;
-				distance[values] = dist;
-				upHeapify(values);
-				values++;
-			}
-			// If there is no room left in the heap, and the new entry is lower
-			// than the max entry
-			else if (dist < distance[0]) {
-				// Replace the max entry with the new entry
-				data[0] = value;
-				distance[0] = dist;
-				downHeapify(0);
-			}
-		}
-
-		public void removeLargest() {
-			if (values == 0) {
-				throw new IllegalStateException();
-			}
-			removedData = data[0];
-			removedDist = distance[0];
-			values--;
-			data[0] = data[values];
-			distance[0] = distance[values];
-			downHeapify(0);
-		}
+	/**
+	 * Replaces the largest value of a full heap of 'size' values.
+	 */
+	private static void heapReplaceTop(double[] distance, Object[] data, int size, double dist, Object value) {
+		data[0] = value;
+		distance[0] = dist;
+		heapDown(distance, data, 0, size);
+	}
 
-		private void upHeapify(int c) {
-			for (int p = (c - 1) / 2; c != 0 && distance[c] > distance[p]; c = p, p = (c - 1) / 2) {
-				Object pData = data[p];
-				double pDist = distance[p];
-				data[p] = data[c];
-				distance[p] = distance[c];
-				data[c] = pData;
-				distance[c] = pDist;
+	private static void heapDown(double[] distance, Object[] data, int p, int values) {
+		for (int c = p * 2 + 1; c < values; p = c, c = p * 2 + 1) {
+			if (c + 1 < values && distance[c] < distance[c + 1]) {
+				c++;
 			}
-		}
-
-		private void downHeapify(int p) {
-			for (int c = p * 2 + 1; c < values; p = c, c = p * 2 + 1) {
-				if (c + 1 < values && distance[c] < distance[c + 1]) {
-					c++;
-				}
-				if (distance[p] < distance[c]) {
-					// Swap the points
-					Object pData = data[p];
-					double pDist = distance[p];
-					data[p] = data[c];
-					distance[p] = distance[c];
-					data[c] = pData;
-					distance[c] = pDist;
-				} else {
-					break;
-				}
+			if (distance[p] < distance[c]) {
+				heapSwap(distance, data, p, c);
+			} else {
+				break;
 			}
 		}
+	}
 
-		public double getMaxDist() {
-			if (values < size) {
-				return Double.POSITIVE_INFINITY;
-			}
-			return distance[0];
-		}
+	private static void heapSwap(double[] distance, Object[] data, int a, int b) {
+		Object aData = data[a];
+		double aDist = distance[a];
+		data[a] = data[b];
+		distance[a] = distance[b];
+		data[b] = aData;
+		distance[b] = aDist;
 	}
 }
@@ -0,0 +1,171 @@
+/**
+ * Copyright (c) 2012-2017 Robert Maupin (Chase)
+ *
+ * This software is provided 'as-is', without any express or implied
+ * warranty. In no event will the authors be held liable for any damages
+ * arising from the use of this software.
+ *
+ * Permission is granted to anyone to use this software for any purpose,
+ * including commercial applications, and to alter it and redistribute it
+ * freely, subject to the following restrictions:
+ *
+ *    1. The origin of this software must not be misrepresented; you must not
+ *    claim that you wrote the original software. If you use this software
+ *    in a product, an acknowledgment in the product documentation would be
+ *    appreciated but is not required.
+ *
+ *    2. Altered source versions must be plainly marked as such, and must not be
+ *    misrepresented as being the original software.
+ *
+ *    3. This notice may not be removed or altered from any source
+ *    distribution.
+ */
+package cs;
+
+import java.util.Random;
+
+import ags.utils.KdTree;
+import cs.util.Simulation;
+import cs.util.Vector;
+import cs.util.Wave;
+
+/**
+ * The kernels the robot spends most of its turns in, run on their own
+ * throwaway data, made the same way every time, so they never touch anything
+ * the robot has learned. Each run is timed and the fastest time so far is kept
+ * for the turn budget to calibrate from. The first runs are slow until the
+ * code is compiled, so rather than running them all at once, the warm up runs
+ * them a little at a time in the turns it has.
+ *
+ * @author Robert Maupin (Chase)
+ */
+public final class Benchmark {
+	static final int DIMENSIONS = 8;
+	static final int TREE_SIZE = 500;
+	public static final int QUERY_NEIGHBORS = 64;
+	private static final int WAVE_TIMES = 40;
+
+	/** The fastest times so far, in nanoseconds */
+	private static long stepTime = Long.MAX_VALUE;
+	private static long updateTime = Long.MAX_VALUE;
+	private static long queryTime = Long.MAX_VALUE;
+	/** The first run of each kernel mostly loads classes, so it is not kept */
+	private static boolean stepRun;
+	private static boolean updateRun;
+	private static boolean queryRun;
+
+	/**
+	 * Creates an empty throwaway tree, to be filled by
+	 * {@link #addPoints(KdTree, Random, int)}.
+	 */
+	static KdTree<Object> createTree() {
+		return new KdTree.WeightedSqrEuclid<Object>(DIMENSIONS, 0);
+	}
+
+	/**
+	 * Adds a number of random points to a throwaway tree.
+	 */
+	static void addPoints(final KdTree<Object> tree, final Random random, final int count) {
+		for(int i = 0; i < count; ++i) {
+			tree.addPoint(createPoint(random), null);
+		}
+	}
+
+	static double[] createPoint(final Random random) {
+		final double[] point = new double[DIMENSIONS];
+		for(int i = 0; i < DIMENSIONS; ++i) {
+			point[i] = random.nextDouble();
+		}
+		return point;
+	}
+
+	/**
+	 * Runs nearest neighbor searches of QUERY_NEIGHBORS neighbors and times
+	 * them.
+	 */
+	static void runQueries(final KdTree<Object> tree, final double[][] queries, final double[] distances,
+			final Object[] values) {
+		final long start = System.nanoTime();
+		for(int i = 0; i < queries.length; ++i) {
+			tree.nearestNeighbor(queries[i], QUERY_NEIGHBORS, distances, values, false);
+		}
+		if(queryRun) {
+			queryTime = Math.min(queryTime, (System.nanoTime() - start) / queries.length);
+		}
+		queryRun = true;
+	}
+
+	/**
+	 * Runs a simulation for a number of turns, weaving back and forth, and
+	 * times it.
+	 */
+	static void runSimulation(final Simulation sim, final int steps) {
+		final long start = System.nanoTime();
+		sim.setLocation(400, 300);
+		sim.heading = 0;
+		sim.velocity = 0;
+		for(int i = 0; i < steps; ++i) {
+			if(i % 20 == 0) {
+				sim.direction = -sim.direction;
+				sim.angleToTurn = sim.direction * 0.5;
+			}
+			sim.step();
+		}
+		if(stepRun) {
+			stepTime = Math.min(stepTime, (System.nanoTime() - start) / steps);
+		}
+		stepRun = true;
+	}
+
+	/**
+	 * Passes a wave over a target moving along it and times it.
+	 */
+	static void runWave(final Wave wave, final Vector target) {
+		final long start = System.nanoTime();
+		wave.setLocation(100, 300);
+		wave.speed = 14;
+		wave.fireTime = 0;
+		wave.directAngle = Math.PI / 2;
+		wave.escapeAngle = 0.6;
+		wave.resetState();
+		for(int t = 0; t < WAVE_TIMES; ++t) {
+			target.setLocation(400, 300 + 8 * t);
+			wave.update(t, target);
+		}
+		if(updateRun) {
+			updateTime = Math.min(updateTime, (System.nanoTime() - start) / WAVE_TIMES);
+		}
+		updateRun = true;
+	}
+
+	/**
+	 * Determines if every kernel has been timed at least once.
+	 */
+	public static boolean hasTimings() {
+		return stepTime != Long.MAX_VALUE && updateTime != Long.MAX_VALUE && queryTime != Long.MAX_VALUE;
+	}
+
+	/**
+	 * Gets the fastest time of one simulation step, in nanoseconds.
+	 */
+	public static long getStepTime() {
+		return stepTime;
+	}
+
+	/**
+	 * Gets the fastest time of one wave update, in nanoseconds.
+	 */
+	public static long getUpdateTime() {
+		return updateTime;
+	}
+
+	/**
+	 * Gets the fastest time of one nearest neighbor search, in nanoseconds.
+	 */
+	public static long getQueryTime() {
+		return queryTime;
+	}
+
+	private Benchmark() {
+	}
+}
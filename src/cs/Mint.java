@@ -29,6 +29,7 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.util.Properties;
 
+import robocode.BattleEndedEvent;
 import robocode.Bullet;
 import robocode.BulletHitBulletEvent;
 import robocode.BulletHitEvent;
@@ -36,9 +37,12 @@ import robocode.Event;
 import robocode.HitByBulletEvent;
 import robocode.RobocodeFileWriter;
 import robocode.ScannedRobotEvent;
+import robocode.SkippedTurnEvent;
 import robocode.StatusEvent;
 import cs.gun.Gun;
 import cs.move.Move;
+import cs.util.FastMath;
+import cs.util.PositionHistory;
 import cs.util.Rectangle;
 
 /**
@@ -47,13 +51,29 @@ import cs.util.Rectangle;
  * @author Robert Maupin (Chase)
  */
 public final class Mint extends RobotBase {
+	/** The number of turns of position history kept for each robot */
+	private static final int HISTORY_SIZE = 2000;
+	/**
+	 * The number of states that are reused. Nothing looks back more than two
+	 * turns, so this leaves some room to spare.
+	 */
+	private static final int STATE_POOL_SIZE = 4;
+	/** The part of the time limit spent warming up each turn */
+	private static final double WARM_UP_SHARE = 0.5;
 	public static boolean doFire = true;
 	public static boolean doMove = true;
+	/** Kept between rounds, so what was learned about the time limit is kept */
+	public static final TurnBudget budget = new TurnBudget();
 	public Gun gun = new Gun(this);
 	public State lastState;
 	public Move move = new Move(this);
+	public ProfileStore profiles = new ProfileStore(this);
 	public Radar radar = new Radar(this);
 	public State state;
+	public final PositionHistory robotHistory = new PositionHistory(HISTORY_SIZE);
+	public final PositionHistory targetHistory = new PositionHistory(HISTORY_SIZE);
+	private final State[] statePool = new State[STATE_POOL_SIZE];
+	private int statePoolIndex = 0;
 
 	/**
 	 * Called when the battle is started. Sets basic static properties.
@@ -114,6 +134,8 @@ public final class Mint extends RobotBase {
 				
 				p.setProperty("robot.gun", "1");
 				p.setProperty("robot.move", "1");
+				p.setProperty("robot.math", "1");
+				p.setProperty("robot.warmup", "1");
 				
 				try {
 					RobocodeFileWriter fw = new RobocodeFileWriter(file);
@@ -126,7 +148,14 @@ public final class Mint extends RobotBase {
 							+ "#    0    Disable Movement\n"
 							+ "#    1    Normal\n"
 							+ "#    2    Minimum Risk Only\n"
-							+ "#    3    Sandbox Flattener\n");
+							+ "#    3    Sandbox Flattener\n"
+							+ "# robot.math\n"
+							+ "#    0    Exact Trigonometry\n"
+							+ "#    1    Fast Trigonometry\n"
+							+ "# robot.warmup\n"
+							+ "#    0    Disable Warm Up\n"
+							+ "#    1    Normal\n"
+							+ "#    2    Verify Learned Data Is Unchanged\n");
 					p.store(fw, null);
 					fw.flush();
 					fw.close();
@@ -179,6 +208,42 @@ public final class Mint extends RobotBase {
 				break;
 			}
 		} catch(Exception e) {}
+		
+		/*
+		 * Determine the trigonometry mode
+		 */
+		try {
+			switch(Integer.parseInt(p.getProperty("robot.math", "1"))) {
+			case 0: //exact
+				System.out.println("Math: Exact");
+				FastMath.exact = true;
+				break;
+			}
+		} catch(Exception e) {}
+		
+		/*
+		 * Determine the warm up mode
+		 */
+		try {
+			switch(Integer.parseInt(p.getProperty("robot.warmup", "1"))) {
+			case 0: //disable
+				System.out.println("Warm Up: Disabled");
+				WarmUp.enabled = false;
+				break;
+			case 2: //verify
+				System.out.println("Warm Up: Verified");
+				WarmUp.verify = true;
+				break;
+			}
+		} catch(Exception e) {}
+	}
+
+	/**
+	 * Called when the battle ends, the opponents profile is saved here.
+	 */
+	@Override
+	public void onBattleEnded(final BattleEndedEvent e) {
+		profiles.save();
 	}
 
 	/**
@@ -227,7 +292,30 @@ public final class Mint extends RobotBase {
 	 */
 	@Override
 	public void onScannedRobot(final ScannedRobotEvent e) {
-		state.update(e, lastState);
+		if (!profiles.isLoaded()) {
+			profiles.load(e.getName());
+		}
+		state.update(e, lastState, targetHistory);
+	}
+
+	/**
+	 * Called when our last turn took too long and this one was skipped.
+	 */
+	@Override
+	public void onSkippedTurn(final SkippedTurnEvent e) {
+		budget.onSkippedTurn();
+	}
+
+	/**
+	 * Gets the next state from the pool, they are reused in turn.
+	 */
+	private State nextPooledState() {
+		State next = statePool[statePoolIndex];
+		if(next == null) {
+			next = statePool[statePoolIndex] = new State();
+		}
+		statePoolIndex = (statePoolIndex + 1) % STATE_POOL_SIZE;
+		return next;
 	}
 
 	/**
@@ -237,7 +325,7 @@ public final class Mint extends RobotBase {
 	@Override
 	public void onStatus(final StatusEvent e) {
 		lastState = state;
-		state = new State(e, lastState);
+		state = nextPooledState().reset(e, lastState, robotHistory);
 		if (0 == state.time) {
 			if (0 == state.round) {
 				doBattleStart();
@@ -252,7 +340,9 @@ public final class Mint extends RobotBase {
 	 */
 	@Override
 	public void onTurnEnded(final Event e) {
+		budget.startTurn();
 		radar.execute(state);
+		budget.endPart(TurnBudget.RADAR);
 		if (!radar.isInitialScan()) {
 			if (!doMove) {
 				gun.setNextPosition(state.robotPosition);
@@ -260,9 +350,18 @@ public final class Mint extends RobotBase {
 				move.execute(state);
 				gun.setNextPosition(move.getNextPosition());
 			}
+			budget.endPart(TurnBudget.MOVE);
 			if (doFire) {
 				gun.execute(state);
 			}
+			budget.endPart(TurnBudget.GUN);
+		}
+		budget.endTurn();
+		if (radar.isInitialScan() && 0 == state.round) {
+			// nothing else is running yet, spend some of the turn compiling
+			WarmUp.run(this, (long) (budget.getLimit() * WARM_UP_SHARE));
+		} else {
+			WarmUp.finish();
 		}
 		execute();
 	}
@@ -0,0 +1,251 @@
+/**
+ * Copyright (c) 2012-2017 Robert Maupin (Chase)
+ *
+ * This software is provided 'as-is', without any express or implied
+ * warranty. In no event will the authors be held liable for any damages
+ * arising from the use of this software.
+ *
+ * Permission is granted to anyone to use this software for any purpose,
+ * including commercial applications, and to alter it and redistribute it
+ * freely, subject to the following restrictions:
+ *
+ *    1. The origin of this software must not be misrepresented; you must not
+ *    claim that you wrote the original software. If you use this software
+ *    in a product, an acknowledgment in the product documentation would be
+ *    appreciated but is not required.
+ *
+ *    2. Altered source versions must be plainly marked as such, and must not be
+ *    misrepresented as being the original software.
+ *
+ *    3. This notice may not be removed or altered from any source
+ *    distribution.
+ */
+package cs;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import robocode.RobocodeFileOutputStream;
+import robocode.RobocodeFileWriter;
+import cs.gun.Gun;
+import cs.move.Move;
+
+/**
+ * Keeps the learned data of the most recently seen opponents in the robot
+ * data directory. Each opponent has its own profile file, and an index file
+ * lists them from least to most recently seen. When there are too many, or
+ * they no longer fit in the data quota, the least recently seen are removed.
+ *
+ * @author Robert Maupin (Chase)
+ */
+public class ProfileStore {
+	/** Identifies a profile file, change the version if the format changes */
+	private static final int PROFILE_MAGIC = 0x4D494E54;
+	private static final int PROFILE_VERSION = 1;
+	private static final String INDEX_FILE = "profiles.idx";
+	private static final int MAXIMUM_PROFILES = 256;
+	/** Space kept free for the index and configuration files */
+	private static final long RESERVED_BYTES = 8192;
+
+	/** The opponent of this battle, null until they are first scanned. */
+	private static String opponent;
+
+	private final Mint bot;
+
+	public ProfileStore(final Mint cntr) {
+		bot = cntr;
+	}
+
+	/**
+	 * Gets the name used for an opponent. Robocode appends an instance number
+	 * when several copies of a robot are in the battle, this is removed.
+	 */
+	private static String getProfileName(final String name) {
+		if(name.endsWith(")")) {
+			final int index = name.lastIndexOf(" (");
+			if(index > 0) {
+				return name.substring(0, index);
+			}
+		}
+		return name;
+	}
+
+	/**
+	 * Determines if the profile of this battles opponent has been loaded.
+	 *
+	 * @return true if the opponent is known, false otherwise
+	 */
+	public boolean isLoaded() {
+		return opponent != null;
+	}
+
+	/**
+	 * Loads the profile of the given opponent, if we have one. This only does
+	 * anything the first time it is called in a battle.
+	 *
+	 * @param name
+	 *            The name of the opponent, as given by the scan event
+	 */
+	public void load(final String name) {
+		if(opponent != null) {
+			return;
+		}
+		opponent = getProfileName(name);
+		final String filename = readIndex().get(opponent);
+		if(filename == null) {
+			System.out.println("No profile for " + opponent + ".");
+			return;
+		}
+		final File file = bot.getDataFile(filename);
+		if(file.length() == 0) {
+			return;
+		}
+		try {
+			final DataInputStream in = new DataInputStream(new BufferedInputStream(
+					new GZIPInputStream(new FileInputStream(file))));
+			try {
+				if(in.readInt() != PROFILE_MAGIC || in.readUnsignedByte() != PROFILE_VERSION) {
+					System.err.println("Profile is from another version. Ignoring it.");
+					return;
+				}
+				final Gun.LoadedData gunData = Gun.readData(in);
+				final Move.LoadedData moveData = Move.readData(in);
+				// only touch the trees once the whole profile has been read
+				gunData.apply();
+				moveData.apply();
+				System.out.println("Loaded profile for " + opponent + ".");
+			} finally {
+				in.close();
+			}
+		} catch(final IOException e) {
+			System.err.println("Failed to load profile for " + opponent + ".");
+		}
+	}
+
+	/**
+	 * Saves the profile of this battles opponent, making it the most recently
+	 * seen. Older profiles are removed to make room if needed.
+	 */
+	public void save() {
+		if(opponent == null) {
+			return;
+		}
+		final byte[] profile;
+		try {
+			final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+			final DataOutputStream out = new DataOutputStream(new GZIPOutputStream(buffer));
+			out.writeInt(PROFILE_MAGIC);
+			out.writeByte(PROFILE_VERSION);
+			Gun.saveData(out);
+			Move.saveData(out);
+			out.close();
+			profile = buffer.toByteArray();
+		} catch(final IOException e) {
+			System.err.println("Failed to create profile for " + opponent + ".");
+			return;
+		}
+
+		final LinkedHashMap<String, String> index = readIndex();
+		long available = bot.getDataQuotaAvailable() - RESERVED_BYTES;
+		String filename = index.remove(opponent);
+		if(filename != null) {
+			// the old profile is replaced, so its space can be used
+			available += bot.getDataFile(filename).length();
+		} else {
+			filename = getFreeFilename(index);
+		}
+
+		// evict the least recently seen until the new profile fits
+		final Iterator<Map.Entry<String, String>> it = index.entrySet().iterator();
+		while(it.hasNext() && (index.size() >= MAXIMUM_PROFILES || profile.length > available)) {
+			final File file = bot.getDataFile(it.next().getValue());
+			available += file.length();
+			file.delete();
+			it.remove();
+		}
+
+		if(profile.length <= available) {
+			try {
+				final RobocodeFileOutputStream out = new RobocodeFileOutputStream(bot.getDataFile(filename));
+				out.write(profile);
+				out.close();
+				index.put(opponent, filename);
+			} catch(final IOException e) {
+				System.err.println("Cannot write profile to robot data directory.");
+			}
+		} else {
+			System.err.println("Not enough data quota to save profile.");
+			bot.getDataFile(filename).delete();
+		}
+		writeIndex(index);
+	}
+
+	/**
+	 * Finds a profile filename that is not in use by another profile.
+	 */
+	private static String getFreeFilename(final Map<String, String> index) {
+		int hash = opponent.hashCode();
+		String filename;
+		do {
+			filename = String.format("p%08x.dat", hash++);
+		} while(index.containsValue(filename));
+		return filename;
+	}
+
+	/**
+	 * Reads the profile index. The map is ordered from the least to the most
+	 * recently seen opponent.
+	 */
+	private LinkedHashMap<String, String> readIndex() {
+		final LinkedHashMap<String, String> index = new LinkedHashMap<String, String>();
+		final File file = bot.getDataFile(INDEX_FILE);
+		if(file.length() == 0) {
+			return index;
+		}
+		try {
+			final BufferedReader reader = new BufferedReader(new FileReader(file));
+			try {
+				String line;
+				while((line = reader.readLine()) != null) {
+					final int tab = line.indexOf('\t');
+					if(tab > 0) {
+						index.put(line.substring(tab + 1), line.substring(0, tab));
+					}
+				}
+			} finally {
+				reader.close();
+			}
+		} catch(final IOException e) {
+			System.err.println("Failed to read profile index.");
+		}
+		return index;
+	}
+
+	/**
+	 * Writes the profile index, one profile per line as the filename and the
+	 * opponent name separated by a tab.
+	 */
+	private void writeIndex(final Map<String, String> index) {
+		try {
+			final RobocodeFileWriter fw = new RobocodeFileWriter(bot.getDataFile(INDEX_FILE));
+			for(final Map.Entry<String, String> entry : index.entrySet()) {
+				fw.write(entry.getValue() + "\t" + entry.getKey() + "\n");
+			}
+			fw.close();
+		} catch(final IOException e) {
+			System.err.println("Cannot write profile index to robot data directory.");
+		}
+	}
+}
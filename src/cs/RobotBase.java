@@ -117,6 +117,10 @@ public abstract class RobotBase implements IAdvancedRobot, IBasicEvents3, IAdvan
 		return peer.getDataFile(filename);
 	}
 
+	public final long getDataQuotaAvailable() {
+		return peer.getDataQuotaAvailable();
+	}
+
 	public final Graphics2D getGraphics() {
 		return peer.getGraphics();
 	}
@@ -22,14 +22,13 @@
  */
 package cs;
 
-import java.util.ArrayDeque;
-
 import robocode.BulletHitEvent;
 import robocode.HitByBulletEvent;
 import robocode.RobotStatus;
 import robocode.Rules;
 import robocode.ScannedRobotEvent;
 import robocode.StatusEvent;
+import cs.util.PositionHistory;
 import cs.util.Rectangle;
 import cs.util.Simulation;
 import cs.util.Tools;
@@ -85,20 +84,25 @@ public class State {
 	 * more than 1 then we are in a melee battle which the robot is not designed to
 	 * handle.
 	 */
-	public final int others;
+	public int others;
 
 	/**
 	 * This is the current round number.
 	 */
-	public final int round;
+	public int round;
 
 	/**
 	 * This is the current turn or tick number. This is in the minimum time step
 	 * that a robot is capable of doing anything.
 	 */
-	public final long time;
+	public long time;
 
-	public ArrayDeque<Vector> robotPastPosition = new ArrayDeque<Vector>();
+	/**
+	 * The history of our positions, shared by every state in the round. This
+	 * states position is the one at robotHistoryIndex.
+	 */
+	public PositionHistory robotHistory;
+	public int robotHistoryIndex;
 	public double robotAdvancingVelocity;
 	public double robotBodyHeading;
 	public double robotBodyHeadingDelta;
@@ -112,14 +116,20 @@ public class State {
 	public double robotLateralVelocity;
 	public int robotOrbitDirection;
 
-	public Vector robotPosition;
+	public final Vector robotPosition = new Vector();
 	public double robotRadarHeading;
 	public double robotReverseOrbitalAngleToWall;
 	public double robotVelocity;
 	public double robotVelocityDelta;
 	public long robotTimeSinceOrbitalDirectionChange;
 
-	public ArrayDeque<Vector> targetPastPosition = new ArrayDeque<Vector>();
+	/**
+	 * The history of the target positions, shared by every state in the round.
+	 * The position from this states scan is the one at targetHistoryIndex, or
+	 * -1 if the target was not scanned.
+	 */
+	public PositionHistory targetHistory;
+	public int targetHistoryIndex = -1;
 	public double targetAngle;
 	public double targetDistance;
 	public double targetDistanceLast16;
@@ -129,27 +139,36 @@ public class State {
 	public double targetLateralVelocity;
 	public int targetOrbitDirection;
 
+	/** The target position, or null if the target was not scanned this turn. */
 	public Vector targetPosition = null;
 	public double targetRelativeAngle;
 	public double targetVelocity;
 	public double targetVelocityDelta;
 	public long targetTimeSinceVelocityChange;
 
+	/* Holds the target position, so a scan does not need a new vector */
+	private final Vector scannedTargetPosition = new Vector();
+
 	/**
-	 * Constructs a new state from the current status event and the previous state.
-	 * The previous state may be null if this is the first state for the robot in a
-	 * given round.
+	 * Resets this state from the current status event and the previous state,
+	 * so that states can be reused rather than created every turn. Everything
+	 * that is only known after a scan is cleared. The previous state may be
+	 * null if this is the first state for the robot in a given round, but it
+	 * must not be this state.
 	 * 
 	 * @param e
 	 *            The status event for the turn.
 	 * @param lastState
 	 *            The state for the previous turn.
+	 * @param history
+	 *            The history of our positions this round.
+	 * @return this state
 	 */
-	public State(final StatusEvent e, final State lastState) {
+	public State reset(final StatusEvent e, final State lastState, final PositionHistory history) {
 		final RobotStatus status = e.getStatus();
 		time = status.getTime();
 		round = status.getRoundNum();
-		robotPosition = new Vector(status.getX(), status.getY());
+		robotPosition.setLocation(status.getX(), status.getY());
 		robotBodyHeading = status.getHeadingRadians();
 		robotGunHeading = status.getGunHeadingRadians();
 		robotRadarHeading = status.getRadarHeadingRadians();
@@ -161,19 +180,42 @@ public class State {
 		robotBodyTurnRemaining = status.getTurnRemainingRadians();
 		others = status.getOthers();
 
-		if (lastState != null) {
-			robotPastPosition.addAll(lastState.robotPastPosition);
-			robotPastPosition.addFirst(robotPosition);
+		robotHistory = history;
+		robotHistoryIndex = history.add(robotPosition);
 
+		robotBodyHeadingDelta = 0;
+		robotVelocityDelta = 0;
+		robotDistanceLast10 = 0;
+		if (lastState != null) {
 			robotBodyHeadingDelta = robotBodyHeading - lastState.robotBodyHeading;
 			robotVelocityDelta = robotVelocity - lastState.robotVelocity;
 
-			if (robotPastPosition.size() < 10) {
-				robotDistanceLast10 = robotPosition.distance(robotPastPosition.getLast());
-			} else {
-				robotDistanceLast10 = robotPosition.distance(robotPastPosition.removeLast());
-			}
+			robotDistanceLast10 = history.distanceBack(robotHistoryIndex, 9);
 		}
+
+		robotAdvancingVelocity = 0;
+		robotLateralVelocity = 0;
+		robotOrbitDirection = 0;
+		robotForwardOrbitalAngleToWall = 0;
+		robotReverseOrbitalAngleToWall = 0;
+		robotTimeSinceOrbitalDirectionChange = 0;
+
+		targetHistory = null;
+		targetHistoryIndex = -1;
+		targetAngle = 0;
+		targetDistance = 0;
+		targetDistanceLast16 = 0;
+		targetEnergy = 0;
+		targetHeading = 0;
+		targetHeadingDelta = 0;
+		targetLateralVelocity = 0;
+		targetOrbitDirection = 0;
+		targetPosition = null;
+		targetRelativeAngle = 0;
+		targetVelocity = 0;
+		targetVelocityDelta = 0;
+		targetTimeSinceVelocityChange = 0;
+		return this;
 	}
 
 	/**
@@ -230,8 +272,10 @@ public class State {
 	 *            The scanned robot event
 	 * @param lastState
 	 *            The state for the previous turn.
+	 * @param history
+	 *            The history of the target positions this round.
 	 */
-	public void update(final ScannedRobotEvent e, final State lastState) {
+	public void update(final ScannedRobotEvent e, final State lastState, final PositionHistory history) {
 		// target data
 		targetRelativeAngle = e.getBearingRadians();
 		targetAngle = robotBodyHeading + targetRelativeAngle;
@@ -242,7 +286,8 @@ public class State {
 		targetHeading = e.getHeadingRadians();
 		// since we call scanned robot after the other two, we need += this
 		targetEnergy = e.getEnergy();
-		targetPosition = robotPosition.clone().project(targetAngle, targetDistance = e.getDistance());
+		targetPosition = scannedTargetPosition.setLocationAndProject(robotPosition, targetAngle,
+				targetDistance = e.getDistance());
 
 		// robot data
 		robotAdvancingVelocity = robotVelocity * Math.cos(e.getBearingRadians());
@@ -254,10 +299,10 @@ public class State {
 		robotReverseOrbitalAngleToWall = Tools.getRadialWallDistance(targetPosition, State.battlefieldWidth,
 				State.battlefieldHeight, targetDistance, targetAngle, -robotOrbitDirection);
 
-		if (lastState != null) {
-			targetPastPosition.addAll(lastState.targetPastPosition);
-			targetPastPosition.addFirst(targetPosition);
+		targetHistory = history;
+		targetHistoryIndex = history.add(targetPosition);
 
+		if (lastState != null) {
 			targetHeadingDelta = targetHeading - lastState.targetHeading;
 			targetVelocityDelta = targetVelocity - lastState.targetVelocity;
 
@@ -273,11 +318,7 @@ public class State {
 				targetTimeSinceVelocityChange = 0;
 			}
 
-			if (targetPastPosition.size() < 16) {
-				targetDistanceLast16 = targetPosition.distance(targetPastPosition.getLast());
-			} else {
-				targetDistanceLast16 = targetPosition.distance(targetPastPosition.removeLast());
-			}
+			targetDistanceLast16 = history.distanceBack(targetHistoryIndex, 15);
 		}
 	}
 }
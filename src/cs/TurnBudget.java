@@ -0,0 +1,308 @@
+/**
+ * Copyright (c) 2012-2017 Robert Maupin (Chase)
+ *
+ * This software is provided 'as-is', without any express or implied
+ * warranty. In no event will the authors be held liable for any damages
+ * arising from the use of this software.
+ *
+ * Permission is granted to anyone to use this software for any purpose,
+ * including commercial applications, and to alter it and redistribute it
+ * freely, subject to the following restrictions:
+ *
+ *    1. The origin of this software must not be misrepresented; you must not
+ *    claim that you wrote the original software. If you use this software
+ *    in a product, an acknowledgment in the product documentation would be
+ *    appreciated but is not required.
+ *
+ *    2. Altered source versions must be plainly marked as such, and must not be
+ *    misrepresented as being the original software.
+ *
+ *    3. This notice may not be removed or altered from any source
+ *    distribution.
+ */
+package cs;
+
+/**
+ * Times each part of the robot every turn and picks a quality level that
+ * keeps the turns within the time limit. Robocode does not tell a robot its
+ * time limit, so it is estimated, starting low, raised by turns that took
+ * longer without being skipped and lowered by turns that were skipped.
+ * <p>
+ * When a turn runs hot the quality drops a level, and when a turn is skipped
+ * it drops two. After many cool turns in a row it rises a level again. Each
+ * part of the robot reads the settings for the current level from here.
+ *
+ * @author Robert Maupin (Chase)
+ */
+public class TurnBudget {
+	public static final int RADAR = 0;
+	public static final int MOVE = 1;
+	public static final int GUN = 2;
+	private static final int PARTS = 3;
+
+	public static final int MINIMUM_LEVEL = 0;
+	public static final int MAXIMUM_LEVEL = 4;
+	/* The settings for each level, from the cheapest to the best */
+	private static final int[] SURF_DEPTHS = { 1, 2, 2, 3, 4 };
+	private static final int[] MOVE_NEIGHBORS = { 16, 24, 32, 48, 64 };
+	private static final int[] GUN_NEIGHBORS = { 20, 30, 40, 60, 80 };
+	private static final int[] GUN_WAVES = { 2, 4, 6, 8, Integer.MAX_VALUE };
+	private static final int[] SHADOW_TURNS = { 30, 50, 70, 90, 110 };
+	private static final int[] MIN_RISK_ANGLES = { 16, 24, 32, 48, 64 };
+
+	/*
+	 * A rough model of a turn used to pick the first level. Each wave surfed
+	 * is simulated for about this many turns per branch, and about this part
+	 * of the branches past the first wave survive the pruning.
+	 */
+	private static final int SURF_TURNS = 30;
+	private static final double SURF_KEPT = 0.4;
+	/** The number of gun waves usually near enough the target to be updated */
+	private static final int TYPICAL_GUN_WAVES = 8;
+	/** The part of the limit a modeled turn may take */
+	private static final double CALIBRATION_TARGET = 0.4;
+
+	/** The time limit assumed until we learn better */
+	private static final long DEFAULT_LIMIT = 2000000;
+	/** The time limit is never assumed to be less than this */
+	private static final long MINIMUM_LIMIT = 200000;
+	/** A turn that takes more than this part of the limit runs hot */
+	private static final double HOT = 0.6;
+	/** A turn that takes less than this part of the limit is cool */
+	private static final double COOL = 0.25;
+	/** The number of cool turns in a row before the quality rises */
+	private static final int COOL_TURNS = 50;
+	/** The most the limit is raised for one hot turn that was not skipped */
+	private static final double RAISE = 1.25;
+
+	private final long[] partTimes = new long[PARTS];
+	private long limit = DEFAULT_LIMIT;
+	private int level = MAXIMUM_LEVEL;
+	/** Changes whenever the level does */
+	private int qualityVersion;
+	private int coolTurns;
+	/** Time spent after a turn ended may make it too long, so skips are ignored */
+	private int ignoreSkips;
+	private long turnStart;
+	private long partStart;
+	private long lastTurnTime;
+	/** The time of the last turn if it ran hot, until we know it was not skipped */
+	private long hotTurnTime;
+
+	/**
+	 * Called when a turn was skipped, which means the last turn took longer
+	 * than the time limit.
+	 */
+	public void onSkippedTurn() {
+		hotTurnTime = 0;
+		if(ignoreSkips > 0) {
+			return;
+		}
+		/*
+		 * If the last turn was cool, something other than our own work made it
+		 * too long, such as garbage collection, so it says little about the limit.
+		 */
+		if(lastTurnTime > limit * COOL) {
+			limit = Math.max(MINIMUM_LIMIT, Math.min(limit, lastTurnTime * 4 / 5));
+		}
+		setQuality(level - 2);
+	}
+
+	/**
+	 * Called before the first part of the turn is run. If the last turn ran hot
+	 * and we did not hear that it was skipped, the limit is more than we
+	 * thought, so it is raised before deciding if the quality has to drop.
+	 */
+	public void startTurn() {
+		turnStart = partStart = System.nanoTime();
+		if(hotTurnTime > 0) {
+			limit = Math.max(limit, Math.min((long) (hotTurnTime / HOT), (long) (limit * RAISE)));
+			if(hotTurnTime > limit * HOT) {
+				setQuality(level - 1);
+			}
+			hotTurnTime = 0;
+		}
+	}
+
+	/**
+	 * Called after each part of the turn is run.
+	 *
+	 * @param part
+	 *            The part that was just run, RADAR, MOVE or GUN
+	 */
+	public void endPart(final int part) {
+		final long now = System.nanoTime();
+		partTimes[part] = now - partStart;
+		partStart = now;
+	}
+
+	/**
+	 * Called after the last part of the turn is run, this adjusts the quality
+	 * for the turns after.
+	 */
+	public void endTurn() {
+		lastTurnTime = System.nanoTime() - turnStart;
+		if(ignoreSkips > 0) {
+			--ignoreSkips;
+		}
+		if(lastTurnTime > limit) {
+			// if this turn is skipped we will hear about it next turn
+			limit = lastTurnTime;
+		}
+		if(lastTurnTime > limit * HOT) {
+			// the quality drops next turn, unless the limit turns out to be more
+			coolTurns = 0;
+			hotTurnTime = lastTurnTime;
+		} else if(lastTurnTime < limit * COOL) {
+			if(++coolTurns >= COOL_TURNS) {
+				coolTurns = 0;
+				setQuality(level + 1);
+			}
+		} else {
+			coolTurns = 0;
+		}
+	}
+
+	/**
+	 * Ignores the skipped turns caused by the turn that just ended, as the time
+	 * spent after {@link #endTurn()}, such as warming up, says nothing about the
+	 * time limit or the quality the robot can afford.
+	 */
+	public void ignoreNextSkips() {
+		ignoreSkips = Math.max(ignoreSkips, 1);
+	}
+
+	/**
+	 * Picks the best level whose modeled turn fits well within the time limit,
+	 * from the fastest timings of the kernels the robot spends most of its time
+	 * in. Nothing is timed here, so this is quick. Until every kernel has been
+	 * timed, the level is left as it is. It is only logged when it changes.
+	 */
+	public void calibrate() {
+		if(!Benchmark.hasTimings()) {
+			return;
+		}
+		final long step = Benchmark.getStepTime();
+		final long update = Benchmark.getUpdateTime();
+		final long query = Benchmark.getQueryTime();
+
+		int best = MINIMUM_LEVEL;
+		for(int i = MINIMUM_LEVEL; i <= MAXIMUM_LEVEL; ++i) {
+			if(getModeledTurnTime(i, query, step, update) <= limit * CALIBRATION_TARGET) {
+				best = i;
+			}
+		}
+		if(best != level) {
+			System.out.printf("Calibrated %d ns query, %d ns step, %d ns wave update, %.2f ms at quality %d\n",
+					query, step, update, getModeledTurnTime(best, query, step, update) / 1e6, best);
+			level = best;
+			++qualityVersion;
+		}
+		coolTurns = 0;
+	}
+
+	/**
+	 * Models the time of a busy turn at the given level.
+	 */
+	private static double getModeledTurnTime(final int level, final long query, final long step,
+			final long update) {
+		// branches surfed, three for each move that survives from the wave before
+		double branches = 0;
+		double width = 3;
+		for(int i = 0; i < SURF_DEPTHS[level]; ++i) {
+			branches += width;
+			width *= 3 * SURF_KEPT;
+		}
+		// each simulated turn steps, updates the wave and plans the path, which costs about a step
+		final double move = branches * SURF_TURNS * (2 * step + update);
+		final double gun = query * GUN_NEIGHBORS[level] / (double) Benchmark.QUERY_NEIGHBORS
+				+ Math.min(GUN_WAVES[level], TYPICAL_GUN_WAVES) * update;
+		return move + gun;
+	}
+
+	/**
+	 * Sets the quality level, it is kept between MINIMUM_LEVEL and
+	 * MAXIMUM_LEVEL.
+	 */
+	public void setQuality(final int newLevel) {
+		final int clamped = Math.max(MINIMUM_LEVEL, Math.min(MAXIMUM_LEVEL, newLevel));
+		if(clamped != level) {
+			System.out.printf("Quality %d (%.2f ms radar, %.2f ms move, %.2f ms gun, %.2f ms limit)\n", clamped,
+					partTimes[RADAR] / 1e6, partTimes[MOVE] / 1e6, partTimes[GUN] / 1e6, limit / 1e6);
+			level = clamped;
+			++qualityVersion;
+		}
+	}
+
+	/**
+	 * Gets the current quality level, between MINIMUM_LEVEL and MAXIMUM_LEVEL.
+	 */
+	public int getQuality() {
+		return level;
+	}
+
+	/**
+	 * Gets a number that changes whenever the quality level does, so anything
+	 * worked out at the old level can be thrown away.
+	 */
+	public int getQualityVersion() {
+		return qualityVersion;
+	}
+
+	/**
+	 * Gets the estimated time limit of a turn, in nanoseconds.
+	 */
+	public long getLimit() {
+		return limit;
+	}
+
+	/**
+	 * Gets the time the given part took last turn, in nanoseconds.
+	 */
+	public long getPartTime(final int part) {
+		return partTimes[part];
+	}
+
+	/**
+	 * Gets the number of waves to surf one after another.
+	 */
+	public int getSurfDepth() {
+		return SURF_DEPTHS[level];
+	}
+
+	/**
+	 * Gets the number of neighbors that make up the danger of a wave.
+	 */
+	public int getMoveNeighbors() {
+		return MOVE_NEIGHBORS[level];
+	}
+
+	/**
+	 * Gets the most neighbors the gun aims from.
+	 */
+	public int getGunNeighbors() {
+		return GUN_NEIGHBORS[level];
+	}
+
+	/**
+	 * Gets the most gun waves to update each turn. Waves for bullets that were
+	 * actually fired are always updated.
+	 */
+	public int getGunWaves() {
+		return GUN_WAVES[level];
+	}
+
+	/**
+	 * Gets the number of directions tried by the minimum risk movement.
+	 */
+	public int getMinRiskAngles() {
+		return MIN_RISK_ANGLES[level];
+	}
+
+	/**
+	 * Gets the most turns ahead a bullet is followed for its shadows.
+	 */
+	public int getShadowTurns() {
+		return SHADOW_TURNS[level];
+	}
+}
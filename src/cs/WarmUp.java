@@ -0,0 +1,205 @@
+/**
+ * Copyright (c) 2012-2017 Robert Maupin (Chase)
+ *
+ * This software is provided 'as-is', without any express or implied
+ * warranty. In no event will the authors be held liable for any damages
+ * arising from the use of this software.
+ *
+ * Permission is granted to anyone to use this software for any purpose,
+ * including commercial applications, and to alter it and redistribute it
+ * freely, subject to the following restrictions:
+ *
+ *    1. The origin of this software must not be misrepresented; you must not
+ *    claim that you wrote the original software. If you use this software
+ *    in a product, an acknowledgment in the product documentation would be
+ *    appreciated but is not required.
+ *
+ *    2. Altered source versions must be plainly marked as such, and must not be
+ *    misrepresented as being the original software.
+ *
+ *    3. This notice may not be removed or altered from any source
+ *    distribution.
+ */
+package cs;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+import ags.utils.KdTree;
+import cs.gun.Gun;
+import cs.move.Move;
+import cs.util.Simulation;
+import cs.util.Vector;
+import cs.util.Wave;
+
+/**
+ * Runs the hot paths of the robot on made up data while the radar does its
+ * first sweep, before the gun and movement have anything to do, so they are
+ * compiled before the first real wave. Compiled code is kept for the whole
+ * battle, so this is only done during the first sweep of the first round, and
+ * nothing is kept from it once that sweep is over.
+ * <p>
+ * When verifying, a checksum of the learned data is taken before the warm up
+ * and compared after every turn of it, to show it leaves nothing behind.
+ *
+ * @author Robert Maupin (Chase)
+ */
+public final class WarmUp {
+	public static boolean enabled = true;
+	public static boolean verify = false;
+
+	/**
+	 * The most passes over the hot paths. The first sweep lasts at most about
+	 * eight turns, which at half of a 2 ms turn each is time for about this
+	 * many while the code is still cold.
+	 */
+	private static final int PASSES = 10;
+	/** The hot paths, each pass runs them in turn */
+	private static final int SIMULATION = 0;
+	private static final int WAVE = 1;
+	private static final int TREE = 2;
+	private static final int SURFING = 3;
+	private static final int PATHS = 4;
+	private static final int STEPS = 100;
+	private static final int QUERIES = 4;
+	/** The points added to the throwaway tree each time, until it is full */
+	private static final int TREE_POINTS = 250;
+	private static final long SEED = 0x574152DL;
+
+	private static boolean finished = false;
+	private static int passes = 0;
+	private static int path = 0;
+	private static long checksum;
+	private static Random random;
+	private static KdTree<Object> tree;
+	private static double[][] queries;
+	private static Move move;
+	private static final Simulation sim = new Simulation();
+	private static final Wave wave = new Wave();
+	private static final Vector target = new Vector();
+	private static final double[] distances = new double[Benchmark.QUERY_NEIGHBORS];
+	private static final Object[] values = new Object[Benchmark.QUERY_NEIGHBORS];
+
+	/**
+	 * Determines if the warm up is over, or is not done at all.
+	 */
+	public static boolean isFinished() {
+		return !enabled || finished;
+	}
+
+	/**
+	 * Runs passes over the hot paths for about the given time, after the turn
+	 * budget has ended the turn, then calibrates the turn budget from the
+	 * fastest timings so far. Any turns this makes the robot skip are not held
+	 * against the budget. Once the last pass is done, the warm up is finished.
+	 *
+	 * @param bot
+	 *            The robot
+	 * @param time
+	 *            The time to spend, in nanoseconds
+	 */
+	public static void run(final Mint bot, final long time) {
+		if(isFinished()) {
+			return;
+		}
+		final long end = System.nanoTime() + time;
+		Mint.budget.ignoreNextSkips();
+		if(move == null) {
+			if(verify) {
+				checksum = getLearnedChecksum();
+			}
+			random = new Random(SEED);
+			tree = Benchmark.createTree();
+			queries = new double[QUERIES][];
+			for(int i = 0; i < QUERIES; ++i) {
+				queries[i] = Benchmark.createPoint(random);
+			}
+			move = Move.createWarmUp(bot);
+		}
+
+		// one path at a time, so a turn does not run far over its time
+		while(passes < PASSES && System.nanoTime() < end) {
+			switch(path) {
+			case SIMULATION:
+				Benchmark.runSimulation(sim, STEPS);
+				break;
+			case WAVE:
+				Benchmark.runWave(wave, target);
+				break;
+			case TREE:
+				// the tree is filled a little at a time, so no turn has to build it all
+				if(tree.size() < Benchmark.TREE_SIZE) {
+					Benchmark.addPoints(tree, random, TREE_POINTS);
+				} else {
+					Benchmark.runQueries(tree, queries, distances, values);
+				}
+				break;
+			case SURFING:
+				move.warmUp();
+				++passes;
+				break;
+			}
+			path = (path + 1) % PATHS;
+		}
+
+		if(verify) {
+			if(getLearnedChecksum() == checksum) {
+				System.out.println("Warm up: learned data unchanged after " + passes + " passes.");
+			} else {
+				System.err.println("Warm up: learned data changed after " + passes + " passes!");
+			}
+		}
+
+		// only arithmetic, so it fits in what is left of the turn
+		Mint.budget.calibrate();
+
+		if(passes >= PASSES) {
+			finish();
+		}
+	}
+
+	/**
+	 * Ends the warm up, if it is not over already. Everything it made is
+	 * dropped, including the movement bound to this round's robot. This is
+	 * called once the first sweep is over, even if not every pass was run, so
+	 * it does nothing that takes time.
+	 */
+	public static void finish() {
+		if(isFinished()) {
+			return;
+		}
+		finished = true;
+		random = null;
+		tree = null;
+		queries = null;
+		move = null;
+	}
+
+	/**
+	 * Gets a checksum of everything the gun and movement have learned, as it
+	 * would be saved.
+	 */
+	private static long getLearnedChecksum() {
+		final CRC32 crc = new CRC32();
+		final DataOutputStream out = new DataOutputStream(new CheckedOutputStream(new OutputStream() {
+			@Override
+			public void write(final int b) {
+			}
+		}, crc));
+		try {
+			Gun.saveData(out);
+			Move.saveData(out);
+			out.flush();
+		} catch(final IOException e) {
+			return -1;
+		}
+		return crc.getValue();
+	}
+
+	private WarmUp() {
+	}
+}
@@ -22,19 +22,22 @@
  */
 package cs.gun;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
 
 import robocode.Bullet;
 import robocode.Rules;
 import robocode.util.Utils;
 import ags.utils.KdTree;
-import ags.utils.KdTree.Entry;
 import cs.Mint;
 import cs.State;
+import cs.util.FastMath;
 import cs.util.Tools;
 import cs.util.Vector;
+import cs.util.WaveScheduler;
 
 /**
  * The gun known as Clover.
@@ -42,12 +45,34 @@ import cs.util.Vector;
  * @author Robert Maupin (Chase)
  */
 public class Gun {
+	private static final int MAXIMUM_NEIGHBORS = 80;
+	/**
+	 * The kernel is ignored past this many bandwidths, where it has fallen
+	 * below a quarter of a percent of its peak.
+	 */
+	private static final double KERNEL_CUTOFF = 3.5;
+	private static final int KERNEL_STEPS = 512;
+	/** The gaussian kernel from the center to the cutoff */
+	private static final double[] KERNEL = new double[KERNEL_STEPS + 1];
+	static {
+		for (int i = 0; i <= KERNEL_STEPS; ++i) {
+			final double u = i * KERNEL_CUTOFF / KERNEL_STEPS;
+			KERNEL[i] = Math.exp(-0.5 * u * u);
+		}
+	}
+	/** The most points that are saved between battles */
+	private static final int MAXIMUM_SAVED = 2000;
 	private static final KdTree.WeightedSqrEuclid<GunFormula> tree;
 	static {
 		tree = new KdTree.WeightedSqrEuclid<GunFormula>(GunFormula.weights.length, 0);
 		tree.setWeights(GunFormula.weights);
 	}
-	private final LinkedList<GunWave> waves = new LinkedList<GunWave>();
+	private final WaveScheduler<GunWave> waves = new WaveScheduler<GunWave>();
+	/* Buffers for the nearest neighbor search, reused every turn */
+	private final double[] neighborDistances = new double[MAXIMUM_NEIGHBORS];
+	private final Object[] neighborValues = new Object[MAXIMUM_NEIGHBORS];
+	private final double[] angles = new double[MAXIMUM_NEIGHBORS];
+	private final double[] weights = new double[MAXIMUM_NEIGHBORS];
 	private final Mint bot;
 	private State state;
 	private Vector next;
@@ -64,6 +89,59 @@ public class Gun {
 	 */
 	public static boolean overrideFireUntilDisabled = false;
 
+	/**
+	 * Writes the learned gun data. If there is more than we save, an evenly
+	 * spaced sample of it is written instead.
+	 */
+	public static void saveData(final DataOutput out) throws IOException {
+		final List<GunFormula> values = tree.getValues();
+		final int count = Math.min(values.size(), MAXIMUM_SAVED);
+		out.writeByte(GunFormula.weights.length);
+		out.writeShort(count);
+		for (int i = 0; i < count; ++i) {
+			values.get((int) ((long) i * values.size() / count)).write(out);
+		}
+	}
+
+	/**
+	 * Gun data that has been read but not yet added to the tree, so that
+	 * nothing is added until a whole profile has been read.
+	 */
+	public static final class LoadedData {
+		private final double[][] locations;
+		private final GunFormula[] values;
+
+		private LoadedData(final double[][] locations, final GunFormula[] values) {
+			this.locations = locations;
+			this.values = values;
+		}
+
+		/**
+		 * Adds the data to the tree all at once.
+		 */
+		public void apply() {
+			tree.addPoints(locations, values);
+		}
+	}
+
+	/**
+	 * Reads gun data written by {@link #saveData(DataOutput)}. It is not added
+	 * to the tree until {@link LoadedData#apply()} is called.
+	 */
+	public static LoadedData readData(final DataInput in) throws IOException {
+		if (in.readUnsignedByte() != GunFormula.weights.length) {
+			throw new IOException("Gun data has the wrong number of dimensions.");
+		}
+		final int count = in.readUnsignedShort();
+		final double[][] locations = new double[count][];
+		final GunFormula[] values = new GunFormula[count];
+		for (int i = 0; i < count; ++i) {
+			values[i] = new GunFormula(in);
+			locations[i] = values[i].getArray();
+		}
+		return new LoadedData(locations, values);
+	}
+
 	/**
 	 * Initializes this gun class with the Mint robot.
 	 * 
@@ -92,7 +170,7 @@ public class Gun {
 		wave.power = bulletPower;
 		wave.speed = Rules.getBulletSpeed(bulletPower);
 		wave.directAngle = angle;
-		wave.escapeAngle = Math.asin(8.0 / wave.speed) * state.targetOrbitDirection;
+		wave.escapeAngle = FastMath.asin(8.0 / wave.speed) * state.targetOrbitDirection;
 		return wave;
 	}
 
@@ -111,34 +189,93 @@ public class Gun {
 			return perfect;
 		}
 
-		int size = (int) Tools.limit(1, tree.size() / 14, 80);
-		final List<Entry<GunFormula>> list = tree.nearestNeighbor(wave.data.getArray(), size, false);
-		size = list.size();
+		int size = (int) Tools.limit(1, tree.size() / 14, Math.min(MAXIMUM_NEIGHBORS, Mint.budget.getGunNeighbors()));
+		size = tree.nearestNeighbor(wave.data.getArray(), size, neighborDistances, neighborValues, false);
 		double bestAngle = 0;
 		double bestDensity = 0;
 		final double bandwidth = 36 / wave.distance(state.targetPosition);
-		final double[] angles = new double[size];
-		final double[] weights = new double[size];
 		for (int i = 0; i < size; ++i) {
-			angles[i] = Utils.normalRelativeAngle(list.get(i).value.guessfactor * wave.escapeAngle);
-			weights[i] = 1.0 / Math.sqrt(list.get(i).distance);
+			angles[i] = Utils.normalRelativeAngle(((GunFormula) neighborValues[i]).guessfactor * wave.escapeAngle);
+			weights[i] = 1.0 / Math.sqrt(neighborDistances[i]);
 		}
+		sortByAngle(size);
+		/*
+		 * With the angles sorted, only the neighbors within the kernel cutoff
+		 * of an angle are near enough to count, and they are a contiguous run
+		 * that moves along with it.
+		 */
+		final double cutoff = KERNEL_CUTOFF * bandwidth;
+		final double scale = KERNEL_STEPS / cutoff;
+		int low = 0;
+		int high = 0;
 		for (int a = 0; a < size; ++a) {
+			while (angles[a] - angles[low] > cutoff)
+				++low;
+			while (high < size && angles[high] - angles[a] <= cutoff)
+				++high;
 			double density = 0;
-			for (int b = 0; b < size; ++b) {
+			for (int b = low; b < high; ++b) {
 				if (a == b)
 					continue;
-				final double ux = (angles[a] - angles[b]) / bandwidth;
-				density += Math.exp(-0.5 * ux * ux) * weights[b];
+				density += kernel(Math.abs(angles[a] - angles[b]) * scale) * weights[b];
 			}
 			if (density > bestDensity) {
 				bestAngle = angles[a];
 				bestDensity = density;
 			}
 		}
+		if (bestDensity == 0) {
+			// every neighbor is isolated, so only the tails of the kernel decide
+			for (int a = 0; a < size; ++a) {
+				double density = 0;
+				for (int b = 0; b < size; ++b) {
+					if (a == b)
+						continue;
+					final double ux = (angles[a] - angles[b]) / bandwidth;
+					density += Math.exp(-0.5 * ux * ux) * weights[b];
+				}
+				if (density > bestDensity) {
+					bestAngle = angles[a];
+					bestDensity = density;
+				}
+			}
+		}
 		return bestAngle;
 	}
 
+	/**
+	 * Looks up the gaussian kernel, interpolating between the table entries.
+	 * 
+	 * @param position
+	 *            The distance from the center in table steps, between 0 and
+	 *            KERNEL_STEPS
+	 */
+	private static double kernel(final double position) {
+		final int index = (int) position;
+		if (index >= KERNEL_STEPS)
+			return KERNEL[KERNEL_STEPS];
+		final double fraction = position - index;
+		return KERNEL[index] + (KERNEL[index + 1] - KERNEL[index]) * fraction;
+	}
+
+	/**
+	 * Sorts the angles and their weights by angle. There are few enough of
+	 * them that an insertion sort is fine, and it needs no extra memory.
+	 */
+	private void sortByAngle(final int size) {
+		for (int i = 1; i < size; ++i) {
+			final double angle = angles[i];
+			final double weight = weights[i];
+			int j = i - 1;
+			for (; j >= 0 && angles[j] > angle; --j) {
+				angles[j + 1] = angles[j];
+				weights[j + 1] = weights[j];
+			}
+			angles[j + 1] = angle;
+			weights[j + 1] = weight;
+		}
+	}
+
 	/**
 	 * Determines the power the gun should fire at.
 	 */
@@ -223,16 +360,29 @@ public class Gun {
 			}
 		}
 
-		waves.add(wave);
+		waves.add(wave, state.time, state.targetPosition);
 	}
 
 	/**
-	 * Updates each wave and calls the processing of completed waves.
+	 * Updates each wave and calls the processing of completed waves. Waves for
+	 * bullets we did not fire beyond what the turn budget allows wait a turn.
+	 * A wave passes the target over at least two turns, so as none waits two
+	 * turns in a row, every wave still sees the target, if for fewer turns.
 	 */
 	private void updateWaves() {
+		waves.wake(state.time, state.targetPosition);
+		int virtualUpdates = Mint.budget.getGunWaves();
 		final Iterator<GunWave> it = waves.iterator();
 		while (it.hasNext()) {
 			final GunWave w = it.next();
+			if (w.data.weight != 1.0) {
+				if (virtualUpdates <= 0 && !w.waited) {
+					w.waited = true;
+					continue;
+				}
+				--virtualUpdates;
+			}
+			w.waited = false;
 			w.update(state.time, state.targetPosition);
 			if (w.isCompleted()) {
 				it.remove();
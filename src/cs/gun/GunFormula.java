@@ -22,6 +22,10 @@
  */
 package cs.gun;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
 import cs.State;
 import cs.util.Tools;
 
@@ -33,6 +37,7 @@ import cs.util.Tools;
  */
 public class GunFormula {
 	public static final double[] weights = new double[] { 0.5, 10, 9, 8.5, 5, 2, 6 };
+	private static final double GUESSFACTOR_SCALE = 8000.0;
 	private final double[] point;
 	public double weight = 0.1;
 	public double guessfactor;
@@ -57,6 +62,20 @@ public class GunFormula {
 			};
 	}
 
+	/**
+	 * Reads a formula previously written with {@link #write(DataOutput)}.
+	 * @param in
+	 * @throws IOException
+	 */
+	public GunFormula(DataInput in) throws IOException {
+		point = new double[weights.length];
+		for(int i = 0; i < point.length; ++i) {
+			point[i] = Tools.dequantizeUnit(in.readUnsignedByte());
+		}
+		guessfactor = in.readShort() / GUESSFACTOR_SCALE;
+		weight = Tools.dequantizeUnit(in.readUnsignedByte());
+	}
+
 	/**
 	 * Gets the calculated data.
 	 * @return array of the data
@@ -64,4 +83,17 @@ public class GunFormula {
 	public final double[] getArray() {
 		return point;
 	};
+
+	/**
+	 * Writes this formula in a compact quantized form, one byte per dimension.
+	 * @param out
+	 * @throws IOException
+	 */
+	public void write(DataOutput out) throws IOException {
+		for(int i = 0; i < point.length; ++i) {
+			out.writeByte(Tools.quantizeUnit(point[i]));
+		}
+		out.writeShort((int) Math.round(Tools.limit(-4, guessfactor, 4) * GUESSFACTOR_SCALE));
+		out.writeByte(Tools.quantizeUnit(weight));
+	}
 }
@@ -32,4 +32,6 @@ import cs.util.Wave;
 @SuppressWarnings("serial")
 public class GunWave extends Wave {
 	public GunFormula data;
+	/** The wave was not updated last turn, so it may not wait again */
+	public boolean waited;
 }
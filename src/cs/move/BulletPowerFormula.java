@@ -22,7 +22,12 @@
  */
 package cs.move;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
 import cs.State;
+import cs.util.Tools;
 
 public class BulletPowerFormula {
 	public static final double[] weights = new double[] { 0.5, 0.5, 3 };
@@ -46,7 +51,28 @@ public class BulletPowerFormula {
 		power = energyDelta;
 	}
 
+	/**
+	 * Reads a formula previously written with {@link #write(DataOutput)}.
+	 */
+	public BulletPowerFormula(DataInput in) throws IOException {
+		point = new double[weights.length];
+		for(int i = 0; i < point.length; ++i) {
+			point[i] = Tools.dequantizeUnit(in.readUnsignedByte());
+		}
+		power = in.readUnsignedShort() / 1000.0;
+	}
+
 	public final double[] getArray() {
 		return point;
 	};
+
+	/**
+	 * Writes this formula in a compact quantized form, one byte per dimension.
+	 */
+	public void write(DataOutput out) throws IOException {
+		for(int i = 0; i < point.length; ++i) {
+			out.writeByte(Tools.quantizeUnit(point[i]));
+		}
+		out.writeShort((int) Math.round(Tools.limit(0, power, 3) * 1000));
+	}
 }
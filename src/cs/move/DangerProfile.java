@@ -0,0 +1,165 @@
+/**
+ * Copyright (c) 2012-2017 Robert Maupin (Chase)
+ *
+ * This software is provided 'as-is', without any express or implied
+ * warranty. In no event will the authors be held liable for any damages
+ * arising from the use of this software.
+ *
+ * Permission is granted to anyone to use this software for any purpose,
+ * including commercial applications, and to alter it and redistribute it
+ * freely, subject to the following restrictions:
+ *
+ *    1. The origin of this software must not be misrepresented; you must not
+ *    claim that you wrote the original software. If you use this software
+ *    in a product, an acknowledgment in the product documentation would be
+ *    appreciated but is not required.
+ *
+ *    2. Altered source versions must be plainly marked as such, and must not be
+ *    misrepresented as being the original software.
+ *
+ *    3. This notice may not be removed or altered from any source
+ *    distribution.
+ */
+package cs.move;
+
+import java.util.Arrays;
+
+import ags.utils.KdTree;
+import cs.util.NumberRange;
+import cs.util.Tools;
+
+/**
+ * The danger of a wave across its guess factors, built from the nearest
+ * neighbors of the waves formula. It is only rebuilt when the guess factor
+ * tree changes, after that the risk of any pass through the wave is found
+ * without searching the tree again.
+ *
+ * @author Robert Maupin (Chase)
+ */
+final class DangerProfile implements KdTree.Reduction<MoveFormula> {
+	private static final int MAXIMUM_NEIGHBORS = 64;
+	/** Guess factors past this are counted at the edge of the profile */
+	private static final double MAXIMUM_FACTOR = 1.5;
+	private static final int BINS = 150;
+	private static final double BIN_WIDTH = 2 * MAXIMUM_FACTOR / BINS;
+	/* Buffers for the nearest neighbor search, shared as the robot is single threaded */
+	private static final double[] neighborDistances = new double[MAXIMUM_NEIGHBORS];
+	private static final Object[] neighborValues = new Object[MAXIMUM_NEIGHBORS];
+
+	/** The weight of the neighbors in each bin */
+	private final double[] binWeights = new double[BINS];
+	/** The weight of the neighbors below each bin edge */
+	private final double[] cumulative = new double[BINS + 1];
+	/** The center risk of a pass centered on each bin edge */
+	private final double[] centerRisk = new double[BINS + 1];
+	private int version = -1;
+	private int neighbors;
+
+	/**
+	 * Rebuilds the profile if the tree or the number of neighbors has changed
+	 * since it was last built.
+	 *
+	 * @param formula
+	 *            The formula of the wave
+	 * @param treeVersion
+	 *            The current version of the guess factor tree
+	 * @param neighborCount
+	 *            The number of neighbors to build it from
+	 */
+	public void update(final MoveFormula formula, final int treeVersion, final int neighborCount) {
+		final int count = Math.min(MAXIMUM_NEIGHBORS, neighborCount);
+		if(version == treeVersion && neighbors == count) {
+			return;
+		}
+		version = treeVersion;
+		neighbors = count;
+		Arrays.fill(binWeights, 0);
+		Arrays.fill(centerRisk, 0);
+		final int size = Move.targetGuessFactorTree.reduceNearest(formula.getArray(), count,
+				neighborDistances, neighborValues, this);
+		cumulative[0] = 0;
+		for(int i = 0; i < BINS; ++i) {
+			binWeights[i] /= size;
+			cumulative[i + 1] = cumulative[i] + binWeights[i];
+		}
+		for(int i = 0; i <= BINS; ++i) {
+			centerRisk[i] /= size;
+		}
+	}
+
+	/**
+	 * Adds a neighbor to the profile.
+	 */
+	public void add(final double distance, final MoveFormula formula) {
+		final double gf = formula.guessfactor;
+
+		/*
+		 * the weight of the danger is based on how closely the predicted factor matches
+		 * our current state
+		 */
+		final double weight = 1.0 / (1.0 + distance);
+
+		/*
+		 * 80% of the risk comes directly if the predicted factor is on top our pass
+		 * through the wave
+		 */
+		binWeights[getBin(gf)] += weight;
+
+		/*
+		 * 20% of the risk comes from how close the predicted factor is from the center
+		 * of our pass through the wave
+		 */
+		for(int i = 0; i <= BINS; ++i) {
+			centerRisk[i] += 0.2 / (1.0 + Math.abs(gf - getEdge(i))) * weight;
+		}
+	}
+
+	/**
+	 * Gets the risk of passing through the wave over the given range of guess
+	 * factors.
+	 *
+	 * @param factorRange
+	 *            The range of guess factors covered by the pass
+	 * @return the risk of the pass
+	 */
+	public double getRisk(final NumberRange factorRange) {
+		double risk = interpolate(centerRisk, factorRange.getCenter());
+		if(factorRange.getMaximum() > factorRange.getMinimum()) {
+			risk += 0.8 * (getWeightBelow(factorRange.getMaximum()) - getWeightBelow(factorRange.getMinimum()));
+		}
+		return risk;
+	}
+
+	private static int getBin(final double gf) {
+		return (int) Math.min(BINS - 1, Math.max(0, (gf + MAXIMUM_FACTOR) / BIN_WIDTH));
+	}
+
+	private static double getEdge(final int index) {
+		return index * BIN_WIDTH - MAXIMUM_FACTOR;
+	}
+
+	/**
+	 * Gets the weight of the neighbors below the given guess factor, assuming
+	 * the weight of each bin is spread evenly across it.
+	 */
+	private double getWeightBelow(final double gf) {
+		final double position = (gf + MAXIMUM_FACTOR) / BIN_WIDTH;
+		if(position <= 0) {
+			return 0;
+		}
+		if(position >= BINS) {
+			return cumulative[BINS];
+		}
+		final int index = (int) position;
+		return cumulative[index] + binWeights[index] * (position - index);
+	}
+
+	/**
+	 * Interpolates a value stored at each bin edge.
+	 */
+	private static double interpolate(final double[] values, final double gf) {
+		final double position = Tools.limit(0, (gf + MAXIMUM_FACTOR) / BIN_WIDTH, BINS);
+		final int index = Math.min(BINS - 1, (int) position);
+		return values[index] + (values[index + 1] - values[index]) * (position - index);
+	}
+}
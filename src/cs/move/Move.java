@@ -23,6 +23,9 @@
 package cs.move;
 
 import java.awt.Color;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Iterator;
@@ -38,6 +41,7 @@ import robocode.Rules;
 import robocode.util.Utils;
 import cs.Mint;
 import cs.State;
+import cs.util.FastMath;
 import cs.util.Simulation;
 import cs.util.Tools;
 import cs.util.Vector;
@@ -61,8 +65,17 @@ public class Move {
 	 */
 	public static boolean overrideSandbox = false;
 	
-	protected static final KdTree.WeightedSqrEuclid<Double> targetBulletPowerTree;
+	/** The most points of each tree that are saved between battles */
+	private static final int MAXIMUM_SAVED_GUESSFACTORS = 2000;
+	private static final int MAXIMUM_SAVED_POWERS = 1000;
+	
+	protected static final KdTree.WeightedSqrEuclid<BulletPowerFormula> targetBulletPowerTree;
 	protected static final KdTree.WeightedSqrEuclid<MoveFormula> targetGuessFactorTree;
+	/** Changes every time points are added to the guess factor tree */
+	protected static int targetGuessFactorVersion;
+	/* The seeds are kept so they are not saved with the learned data */
+	private static final MoveFormula guessFactorSeed;
+	private static final BulletPowerFormula bulletPowerSeed;
 	
 	
 	static {
@@ -70,12 +83,145 @@ public class Move {
 		targetGuessFactorTree.setWeights(MoveFormula.weights);
 
 		// seed the tree (just one, a basic avoid head on targeting)
-		MoveFormula tmp = new MoveFormula();
-		targetGuessFactorTree.addPoint(tmp.getArray(), tmp);
+		guessFactorSeed = new MoveFormula();
+		targetGuessFactorTree.addPoint(guessFactorSeed.getArray(), guessFactorSeed);
+
+		targetBulletPowerTree = new KdTree.WeightedSqrEuclid<BulletPowerFormula>(BulletPowerFormula.weights.length, 0);
+		bulletPowerSeed = new BulletPowerFormula();
+		targetBulletPowerTree.addPoint(bulletPowerSeed.getArray(), bulletPowerSeed);
+	}
+
+	/**
+	 * Writes the learned guess factor and bullet power data. If there is more
+	 * than we save, an evenly spaced sample of it is written instead.
+	 */
+	public static void saveData(final DataOutput out) throws IOException {
+		List<MoveFormula> factors = targetGuessFactorTree.getValues();
+		factors.remove(guessFactorSeed);
+		int count = Math.min(factors.size(), MAXIMUM_SAVED_GUESSFACTORS);
+		out.writeByte(MoveFormula.weights.length);
+		out.writeShort(count);
+		for (int i = 0; i < count; ++i) {
+			factors.get((int) ((long) i * factors.size() / count)).write(out);
+		}
 
-		targetBulletPowerTree = new KdTree.WeightedSqrEuclid<Double>(BulletPowerFormula.weights.length, 0);
-		BulletPowerFormula tmp2 = new BulletPowerFormula();
-		targetBulletPowerTree.addPoint(tmp2.getArray(), tmp2.power);
+		List<BulletPowerFormula> powers = targetBulletPowerTree.getValues();
+		powers.remove(bulletPowerSeed);
+		count = Math.min(powers.size(), MAXIMUM_SAVED_POWERS);
+		out.writeByte(BulletPowerFormula.weights.length);
+		out.writeShort(count);
+		for (int i = 0; i < count; ++i) {
+			powers.get((int) ((long) i * powers.size() / count)).write(out);
+		}
+	}
+
+	/**
+	 * Movement data that has been read but not yet added to the trees, so that
+	 * nothing is added until a whole profile has been read.
+	 */
+	public static final class LoadedData {
+		private final double[][] factorLocations;
+		private final MoveFormula[] factors;
+		private final double[][] powerLocations;
+		private final BulletPowerFormula[] powers;
+
+		private LoadedData(final double[][] factorLocations, final MoveFormula[] factors,
+				final double[][] powerLocations, final BulletPowerFormula[] powers) {
+			this.factorLocations = factorLocations;
+			this.factors = factors;
+			this.powerLocations = powerLocations;
+			this.powers = powers;
+		}
+
+		/**
+		 * Adds the data to the trees all at once.
+		 */
+		public void apply() {
+			targetGuessFactorTree.addPoints(factorLocations, factors);
+			++targetGuessFactorVersion;
+			targetBulletPowerTree.addPoints(powerLocations, powers);
+		}
+	}
+
+	/**
+	 * Reads data written by {@link #saveData(DataOutput)}. It is not added to
+	 * the trees until {@link LoadedData#apply()} is called.
+	 */
+	public static LoadedData readData(final DataInput in) throws IOException {
+		if (in.readUnsignedByte() != MoveFormula.weights.length) {
+			throw new IOException("Guess factor data has the wrong number of dimensions.");
+		}
+		int count = in.readUnsignedShort();
+		final double[][] factorLocations = new double[count][];
+		final MoveFormula[] factors = new MoveFormula[count];
+		for (int i = 0; i < count; ++i) {
+			factors[i] = new MoveFormula(in);
+			factorLocations[i] = factors[i].getArray();
+		}
+
+		if (in.readUnsignedByte() != BulletPowerFormula.weights.length) {
+			throw new IOException("Bullet power data has the wrong number of dimensions.");
+		}
+		count = in.readUnsignedShort();
+		final double[][] powerLocations = new double[count][];
+		final BulletPowerFormula[] powers = new BulletPowerFormula[count];
+		for (int i = 0; i < count; ++i) {
+			powers[i] = new BulletPowerFormula(in);
+			powerLocations[i] = powers[i].getArray();
+		}
+
+		return new LoadedData(factorLocations, factors, powerLocations, powers);
+	}
+
+	/**
+	 * Creates a throwaway movement with a few made up waves in the air, for
+	 * {@link #warmUp()}.
+	 */
+	public static Move createWarmUp(final Mint bot) {
+		final Move move = new Move(bot);
+		move.drawing = false;
+		move.path = new MovePath();
+		move.path.setBattlefieldSize(State.battlefieldWidth, State.battlefieldHeight);
+
+		final State state = new State();
+		state.time = 40;
+		state.robotPosition.setLocation(State.battlefieldWidth / 2.0, State.battlefieldHeight / 2.0);
+		state.robotBodyHeading = Math.PI / 2;
+		state.robotVelocity = Rules.MAX_VELOCITY;
+		state.robotOrbitDirection = State.CLOCKWISE;
+		move.state = state;
+
+		for (int i = 0; i < 2; ++i) {
+			final MoveWave wave = new MoveWave(false);
+			wave.setLocation(state.robotPosition.x, state.robotPosition.y - 400);
+			wave.power = 2;
+			wave.speed = Rules.getBulletSpeed(wave.power);
+			// close enough to pass in a few turns, so each search is short
+			wave.fireTime = state.time - 20 + 8 * i;
+			wave.directAngle = wave.angleTo(state.robotPosition);
+			wave.escapeAngle = FastMath.asin(8.0 / wave.speed);
+			wave.formula = new MoveFormula();
+			move.waves.add(wave);
+		}
+		return move;
+	}
+
+	/**
+	 * Surfs the made up waves of a throwaway movement, so the surfing is
+	 * compiled before the first real wave. The guess factor tree is only read
+	 * and nothing is sent to or drawn on the robot.
+	 */
+	public void warmUp() {
+		// otherwise every search after the first would come from the cache
+		riskCache.clear();
+		final MoveRisk risk = new MoveRisk(this, state, getBestWave(Collections.<MoveWave>emptyList()));
+		branchOrbitDirections[0] = State.CLOCKWISE;
+		branchMaxVelocities[0] = Rules.MAX_VELOCITY;
+		branchOrbitDirections[1] = State.CLOCKWISE;
+		branchMaxVelocities[1] = 0;
+		branchOrbitDirections[2] = State.COUNTERCLOCKWISE;
+		branchMaxVelocities[2] = Rules.MAX_VELOCITY;
+		risk.calculateRisks(branchOrbitDirections, branchMaxVelocities, branchRisks, 3);
 	}
 
 	protected final Mint bot;
@@ -88,6 +234,16 @@ public class Move {
 	private double targetGunHeat;
 	private WavelessMove waveless;
 	private LinkedList<MoveWave> waves = new LinkedList<MoveWave>();
+	/* The moves surfing considers: forward, stop and reverse */
+	private final int[] branchOrbitDirections = new int[MoveRisk.MAXIMUM_BRANCHES];
+	private final double[] branchMaxVelocities = new double[MoveRisk.MAXIMUM_BRANCHES];
+	private final double[] branchRisks = new double[MoveRisk.MAXIMUM_BRANCHES];
+	/** The risks of surfing from simulated states, valid until the waves change */
+	final RiskCache riskCache = new RiskCache();
+	/** The quality version the risks in the cache were worked out at */
+	private int riskCacheQuality = -1;
+	/** Determines if surfing is drawn on the robot's debug graphics */
+	boolean drawing = true;
 
 	public Move(final Mint cntr) {
 		bot = cntr;
@@ -110,16 +266,17 @@ public class Move {
 
 			MoveWave wave = new MoveWave(true);
 			wave.setLocation(sim.position);
-			wave.power = targetBulletPowerTree.nearestNeighbor(bpf.getArray(), 1, false).get(0).value;
+			wave.power = targetBulletPowerTree.nearestNeighbor(bpf.getArray(), 1, false).get(0).value.power;
 			wave.speed = Rules.getBulletSpeed(wave.power);
 			wave.directAngle = wave.angleTo(state.robotPosition);
 			// hopefully our orbit direction will hold
 			// but assume the enemy has no better information
-			wave.escapeAngle = Math.asin(8.0 / wave.speed) * state.robotOrbitDirection;
+			wave.escapeAngle = FastMath.asin(8.0 / wave.speed) * state.robotOrbitDirection;
 			wave.fireTime = state.time + 1;
 			wave.formula = new MoveFormula(state);
 
 			waves.add(wave);
+			riskCache.clear();
 		}
 	}
 
@@ -134,7 +291,7 @@ public class Move {
 			// update bullet power KNN
 			// last chance for bullet power was 1 turn ago
 			BulletPowerFormula bpf = new BulletPowerFormula(lastState, energyDelta);
-			targetBulletPowerTree.addPoint(bpf.getArray(), bpf.power);
+			targetBulletPowerTree.addPoint(bpf.getArray(), bpf);
 
 			// TODO handle inactivity counter
 			/*
@@ -145,13 +302,14 @@ public class Move {
 			wave.setLocation(lastState.targetPosition);
 			wave.power = energyDelta;
 			wave.speed = Rules.getBulletSpeed(wave.power);
-			wave.escapeAngle = Math.asin(8.0 / wave.speed) * state.robotOrbitDirection;
+			wave.escapeAngle = FastMath.asin(8.0 / wave.speed) * state.robotOrbitDirection;
 			wave.directAngle = lastLastState.targetAngle + Math.PI;
 			wave.fireTime = state.time - 1;
 			wave.formula = new MoveFormula(lastLastState);
 
 			updateShadowsForWave(wave);
 			waves.add(wave);
+			riskCache.clear();
 		}
 	}
 
@@ -171,17 +329,34 @@ public class Move {
 			bot.g.drawString("Surfing", 4, 16);
 		}
 		
+		// the danger profiles are rebuilt when the quality changes
+		if (riskCacheQuality != Mint.budget.getQualityVersion()) {
+			riskCacheQuality = Mint.budget.getQualityVersion();
+			riskCache.clear();
+		}
+
 		// direction and risk
 		MoveRisk moveRisk = new MoveRisk(this, state, wave);
 		
+		/*
+		 * Only the least risk of a search is exact, so forward and reverse are
+		 * searched together to choose the direction, and then stop only has to
+		 * be searched as far as it takes to beat the better of them.
+		 */
+		branchOrbitDirections[0] = state.robotOrbitDirection;
+		branchMaxVelocities[0] = Rules.MAX_VELOCITY;
+		branchOrbitDirections[1] = -state.robotOrbitDirection;
+		branchMaxVelocities[1] = Rules.MAX_VELOCITY;
+
 		bot.g.setColor(new Color(0,1,0,0.5f));
-		double forwardRisk = moveRisk.copy().calculateRisk(state.robotOrbitDirection, Rules.MAX_VELOCITY);
-		
-		bot.g.setColor(new Color(0,0,1,0.5f));
-		double stopRisk = moveRisk.copy().calculateRisk(state.robotOrbitDirection, 0);
-		
-		bot.g.setColor(new Color(1,0,0,0.5f));
-		double reverseRisk = moveRisk.calculateRisk(-state.robotOrbitDirection, Rules.MAX_VELOCITY);
+		final double leastRisk = moveRisk.calculateRisks(branchOrbitDirections, branchMaxVelocities, branchRisks, 2);
+		double forwardRisk = branchRisks[0];
+		double reverseRisk = branchRisks[1];
+
+		branchOrbitDirections[0] = state.robotOrbitDirection;
+		branchMaxVelocities[0] = 0;
+		moveRisk.calculateRisks(branchOrbitDirections, branchMaxVelocities, branchRisks, 1, leastRisk);
+		double stopRisk = branchRisks[0];
 		
 		
 		int targetOrbitDirection = state.robotOrbitDirection;
@@ -349,6 +524,7 @@ public class Move {
 		bullets.add(b);
 		// calculate where it will be on all future waves
 		updateShadowsForBullet(b);
+		riskCache.clear();
 	}
 
 	/**
@@ -442,6 +618,8 @@ public class Move {
 		final MoveFormula data = w.formula;
 		data.guessfactor = Utils.normalRelativeAngle(angle - w.directAngle) / w.escapeAngle;
 		targetGuessFactorTree.addPoint(data.getArray(), data);
+		++targetGuessFactorVersion;
+		riskCache.clear();
 	}
 
 	/**
@@ -461,6 +639,7 @@ public class Move {
 				wave.removeShadow(b);
 			}
 		}
+		riskCache.clear();
 	}
 
 	/**
@@ -555,7 +734,10 @@ public class Move {
 
 			wave.draw(bot.g, state.time);
 
-			wave.update(state.time, state.robotPosition);
+			// until the wave could reach us, there is nothing to update
+			if (wave.isIntersected() || wave.getContactTime(state.time, state.robotPosition) <= state.time) {
+				wave.update(state.time, state.robotPosition);
+			}
 
 			if (wave.isCompleted()) {
 				// TODO allow it to do this dynamically
@@ -565,6 +747,7 @@ public class Move {
 				}
 
 				it.remove();
+				riskCache.clear();
 			} else if (wave.isHeatWave && state.time - wave.fireTime > 3) {
 				/*
 				 * We wait to remove this until after this the fake wave is no longer relevant,
@@ -573,6 +756,7 @@ public class Move {
 				 */
 				if (state.targetPosition != null) {
 					it.remove();
+					riskCache.clear();
 				}
 
 			}
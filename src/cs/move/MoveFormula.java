@@ -22,6 +22,10 @@
  */
 package cs.move;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
 import cs.State;
 import cs.util.Tools;
 
@@ -32,6 +36,7 @@ import cs.util.Tools;
  */
 public class MoveFormula {
 	public static final double[] weights = new double[] { 6, 1, 3.2, 4, 2, 1, 2.2 };
+	private static final double GUESSFACTOR_SCALE = 8000.0;
 	private final double[] point;
 	public double guessfactor;
 
@@ -54,7 +59,28 @@ public class MoveFormula {
 				Math.min(state.robotTimeSinceOrbitalDirectionChange / 400.0, 1) };
 	}
 
+	/**
+	 * Reads a formula previously written with {@link #write(DataOutput)}.
+	 */
+	public MoveFormula(DataInput in) throws IOException {
+		point = new double[weights.length];
+		for(int i = 0; i < point.length; ++i) {
+			point[i] = Tools.dequantizeUnit(in.readUnsignedByte());
+		}
+		guessfactor = in.readShort() / GUESSFACTOR_SCALE;
+	}
+
 	public final double[] getArray() {
 		return point;
 	};
+
+	/**
+	 * Writes this formula in a compact quantized form, one byte per dimension.
+	 */
+	public void write(DataOutput out) throws IOException {
+		for(int i = 0; i < point.length; ++i) {
+			out.writeByte(Tools.quantizeUnit(point[i]));
+		}
+		out.writeShort((int) Math.round(Tools.limit(-4, guessfactor, 4) * GUESSFACTOR_SCALE));
+	}
 }
@@ -24,6 +24,7 @@ package cs.move;
 
 import robocode.Rules;
 import robocode.util.Utils;
+import cs.util.FastMath;
 import cs.util.Tools;
 import cs.util.Vector;
 
@@ -146,8 +147,8 @@ public class MovePath {
 
 		double stickSq = stick * stick;
 
-		double nx = px + stick * Math.sin(angle);
-		double ny = py + stick * Math.cos(angle);
+		double nx = px + stick * FastMath.sin(angle);
+		double ny = py + stick * FastMath.cos(angle);
 
 		if (nx >= WALL_MARGIN && nx <= field_width - WALL_MARGIN && ny >= WALL_MARGIN && ny <= field_height - WALL_MARGIN)
 			return angle;
@@ -161,13 +162,13 @@ public class MovePath {
 					stick = field_width - WALL_MARGIN - px;
 					nx = field_width - WALL_MARGIN;
 					ny = py - direction * Math.sqrt(stickSq - stick * stick);
-					return Math.atan2(nx - px, ny - py);
+					return FastMath.atan2(nx - px, ny - py);
 				} else {
 					// smooth top
 					stick = field_height - WALL_MARGIN - py;
 					nx = px + direction * Math.sqrt(stickSq - stick * stick);
 					ny = field_height - WALL_MARGIN;
-					return Math.atan2(nx - px, ny - py);
+					return FastMath.atan2(nx - px, ny - py);
 				}
 			} else /* LEFT */if (nx < WALL_MARGIN || px < stick + WALL_MARGIN) {
 				if (direction > 0) {
@@ -175,20 +176,20 @@ public class MovePath {
 					stick = field_height - WALL_MARGIN - py;
 					nx = px + direction * Math.sqrt(stickSq - stick * stick);
 					ny = field_height - WALL_MARGIN;
-					return Math.atan2(nx - px, ny - py);
+					return FastMath.atan2(nx - px, ny - py);
 				} else {
 					// smooth left
 					stick = px - WALL_MARGIN;
 					nx = WALL_MARGIN;
 					ny = py + direction * Math.sqrt(stickSq - stick * stick);
-					return Math.atan2(nx - px, ny - py);
+					return FastMath.atan2(nx - px, ny - py);
 				}
 			}
 			// smooth top
 			stick = field_height - WALL_MARGIN - py;
 			nx = px + direction * Math.sqrt(stickSq - stick * stick);
 			ny = field_height - WALL_MARGIN;
-			return Math.atan2(nx - px, ny - py);
+			return FastMath.atan2(nx - px, ny - py);
 		} else /* BOTTOM */if (ny < WALL_MARGIN || py < stick + WALL_MARGIN) {
 			/* RIGHT */
 			if (nx > field_width - WALL_MARGIN || px > field_width - stick - WALL_MARGIN) {
@@ -197,13 +198,13 @@ public class MovePath {
 					stick = py - WALL_MARGIN;
 					nx = px - direction * Math.sqrt(stickSq - stick * stick);
 					ny = WALL_MARGIN;
-					return Math.atan2(nx - px, ny - py);
+					return FastMath.atan2(nx - px, ny - py);
 				} else {
 					// smooth right
 					stick = field_width - WALL_MARGIN - px;
 					nx = field_width - WALL_MARGIN;
 					ny = py - direction * Math.sqrt(stickSq - stick * stick);
-					return Math.atan2(nx - px, ny - py);
+					return FastMath.atan2(nx - px, ny - py);
 				}
 			} else /* LEFT */if (nx < WALL_MARGIN || px < stick + WALL_MARGIN) {
 				if (direction > 0) {
@@ -211,20 +212,20 @@ public class MovePath {
 					stick = px - WALL_MARGIN;
 					nx = WALL_MARGIN;
 					ny = py + direction * Math.sqrt(stickSq - stick * stick);
-					return Math.atan2(nx - px, ny - py);
+					return FastMath.atan2(nx - px, ny - py);
 				} else {
 					// smooth bottom
 					stick = py - WALL_MARGIN;
 					nx = px - direction * Math.sqrt(stickSq - stick * stick);
 					ny = WALL_MARGIN;
-					return Math.atan2(nx - px, ny - py);
+					return FastMath.atan2(nx - px, ny - py);
 				}
 			}
 			// smooth bottom
 			stick = py - WALL_MARGIN;
 			nx = px - direction * Math.sqrt(stickSq - stick * stick);
 			ny = WALL_MARGIN;
-			return Math.atan2(nx - px, ny - py);
+			return FastMath.atan2(nx - px, ny - py);
 		}
 
 		/* RIGHT */
@@ -232,12 +233,12 @@ public class MovePath {
 			stick = field_width - WALL_MARGIN - px;
 			nx = field_width - WALL_MARGIN;
 			ny = py - direction * Math.sqrt(stickSq - stick * stick);
-			return Math.atan2(nx - px, ny - py);
+			return FastMath.atan2(nx - px, ny - py);
 		} else /* LEFT */if (nx < WALL_MARGIN || px < stick + WALL_MARGIN) {
 			stick = px - WALL_MARGIN;
 			nx = WALL_MARGIN;
 			ny = py + direction * Math.sqrt(stickSq - stick * stick);
-			return Math.atan2(nx - px, ny - py);
+			return FastMath.atan2(nx - px, ny - py);
 		}
 		return angle;
 	}
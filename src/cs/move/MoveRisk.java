@@ -1,33 +1,80 @@
 package cs.move;
 
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
 
-import ags.utils.KdTree.Entry;
+import cs.Mint;
 import cs.State;
+import cs.util.BatchSimulation;
+import cs.util.NumberRange;
 import cs.util.Simulation;
 import cs.util.Vector;
 import robocode.Rules;
 
 public class MoveRisk {
 	private static final int MAXIMUM_CALC_TIME = 80;
+	public static final int MAXIMUM_BRANCHES = 8;
+	/** The most waves surfed one after another */
+	public static final int MAXIMUM_DEPTH = 4;
+	/** The weight of the risk of each wave after the one being surfed */
+	private static final double NEXT_WAVE_WEIGHT = 0.5;
+
+	/**
+	 * Scratch space for simulating several moves at once. There is one for
+	 * each wave being surfed.
+	 */
+	private static final class Branches {
+		final BatchSimulation batch = new BatchSimulation(MAXIMUM_BRANCHES);
+		final NumberRange[] ranges = new NumberRange[MAXIMUM_BRANCHES];
+		final boolean[] intersected = new boolean[MAXIMUM_BRANCHES];
+		final boolean[] completed = new boolean[MAXIMUM_BRANCHES];
+		final double[] predictedDistance = new double[MAXIMUM_BRANCHES];
+		final int[] intersectionTime = new int[MAXIMUM_BRANCHES];
+		final int[] orbitDirections = new int[MAXIMUM_BRANCHES];
+		final double[] maxVelocities = new double[MAXIMUM_BRANCHES];
+		final double[] risks = new double[MAXIMUM_BRANCHES];
+		final Vector position = new Vector();
+		final Simulation start = new Simulation();
+
+		Branches() {
+			for (int i = 0; i < MAXIMUM_BRANCHES; ++i) {
+				ranges[i] = new NumberRange();
+			}
+		}
+	}
+
+	/**
+	 * The scratch space for each wave deep, made as it is needed. It belongs to
+	 * one search and is shared with the risks of the waves behind, so separate
+	 * searches can run on separate threads.
+	 */
+	private final Branches[] branches;
+	/** The waves currently being surfed, the first is the nearest */
+	private final ArrayList<MoveWave> surfed;
 	protected int startTime;
 	protected int maxTime;
 	protected Simulation sim;
 	protected State state;
 	protected MoveWave wave;
 	protected Move move;
-	private boolean secondRisk;
 	
 	public MoveRisk(Simulation sim, Move move, State state, MoveWave wave) {
+		this(sim, move, state, wave, new Branches[MAXIMUM_DEPTH], new ArrayList<MoveWave>(MAXIMUM_DEPTH));
+	}
+
+	/**
+	 * Creates the risk of a wave behind the one being surfed, sharing the
+	 * scratch space of the search.
+	 */
+	private MoveRisk(Simulation sim, Move move, State state, MoveWave wave, Branches[] branches,
+			ArrayList<MoveWave> surfed) {
 		this.move = move;
 		this.state = state;
 		this.wave = wave;
 		this.sim = sim;
 		this.maxTime = MAXIMUM_CALC_TIME;
 		this.startTime = 0;
-		this.secondRisk = false;
+		this.branches = branches;
+		this.surfed = surfed;
 	}
 	
 	public MoveRisk(Move move, State state, MoveWave wave) {
@@ -36,17 +83,22 @@ public class MoveRisk {
 		this.sim.position.setLocation(state.robotPosition);
 		this.sim.heading = state.robotBodyHeading;
 		this.sim.velocity = state.robotVelocity;
-		this.secondRisk = false;
 	}
 	
 	public MoveRisk copy() {
 		MoveRisk risk = new MoveRisk(sim.copy(), move, state, wave);
 		risk.startTime = startTime;
 		risk.maxTime = maxTime;
-		risk.secondRisk = secondRisk;
 		return risk;
 	}
 	
+	/**
+	 * Gets the number of waves to surf, which is set by the turn budget.
+	 */
+	private static int getSurfDepth() {
+		return Math.min(MAXIMUM_DEPTH, Mint.budget.getSurfDepth());
+	}
+
 	/**
 	 * Calculate the risk of a given wave at the given simulated end position.
 	 * 
@@ -54,101 +106,202 @@ public class MoveRisk {
 	 * @return the risk of the position
 	 */
 	protected double calculateWavePositionRisk(final Vector lastPosition) {
-		// check risk
-		double centerGF = wave.factorRange.getCenter();
-		double waveRisk = 0;
-
 		/* bullet shadows apply a weight to our danger prediction */
 		double shadowWeight = 1.0 - wave.calculateShadowCoverage();
 		if (shadowWeight <= 0.0001) {
 			return 0;
 		}
 
-		List<Entry<MoveFormula>> list = Move.targetGuessFactorTree.nearestNeighbor(wave.formula.getArray(), 64, false);
-		for (final Entry<MoveFormula> e : list) {
-			double gf = e.value.guessfactor;
-
-			/*
-			 * 20% of the risk comes from how close the predicted factor is from the center
-			 * of our pass through the wave
-			 */
-			double risk = 0.2 / (1.0 + Math.abs(gf - centerGF));
-
-			/*
-			 * 80% of the risk comes directly if the predicted factor is on top our pass
-			 * through the wave
-			 */
-			if (wave.factorRange.getMinimum() < gf && wave.factorRange.getMaximum() > gf) {
-				risk += 0.8;
-			}
-
-			/*
-			 * the weight of the danger is based on how closely the predicted factor matches
-			 * our current state
-			 */
-			double weight = 1.0 / (1.0 + e.distance);
-
-			waveRisk += risk * shadowWeight * weight;
-		}
-		return waveRisk / list.size();
+		return wave.getDanger().getRisk(wave.factorRange) * shadowWeight;
 	}
 	
 	/**
-	 * Calculate the risk of the defined move.
-	 * @return the move risk
+	 * Calculates the risk of several moves at once. Each move orbits in the
+	 * given direction at up to the given velocity, and they are simulated side
+	 * by side one turn at a time. After a move passes the wave, the waves
+	 * behind it are surfed in turn, up to MAXIMUM_DEPTH waves deep.
+	 * <p>
+	 * Only the least risk is exact. The search stops following a move as soon
+	 * as it is known to be riskier than the best move found so far, so the
+	 * risk of such a move may be less than its true risk, but it is always
+	 * more than the least risk.
+	 * 
+	 * @param orbitDirections
+	 *            The orbit direction of each move
+	 * @param maxVelocities
+	 *            The maximum velocity of each move
+	 * @param risks
+	 *            Receives the risk of each move
+	 * @param count
+	 *            The number of moves, at most MAXIMUM_BRANCHES
+	 * @return the least risk of any move
 	 */
-	public double calculateRisk(int orbitDirection, double maxVelocity) {
-		double startDistance = wave.distance(sim.position);
-		double predictedDistance = 0;
-		int intersectionTime = 0;
+	public double calculateRisks(final int[] orbitDirections, final double[] maxVelocities, final double[] risks,
+			final int count) {
+		return calculateRisks(orbitDirections, maxVelocities, risks, count, Double.POSITIVE_INFINITY);
+	}
 
-		double risk = 0;
+	/**
+	 * Calculates the risk of several moves at once, not following any move
+	 * further once its risk is more than the given bound. The risk of a move
+	 * that is not the least may be less than its true risk, but is always more
+	 * than the bound.
+	 * 
+	 * @return the least risk of any move
+	 */
+	public double calculateRisks(final int[] orbitDirections, final double[] maxVelocities, final double[] risks,
+			final int count, double bound) {
+		final int depth = surfed.size();
+		final Branches b = getBranches(depth);
+		final double startDistance = wave.distance(sim.position);
+		surfed.add(wave);
+
+		b.batch.clear();
+		for (int i = 0; i < count; ++i) {
+			b.batch.add(sim);
+			b.ranges[i].set(Byte.MAX_VALUE, Byte.MIN_VALUE);
+			b.intersected[i] = false;
+			b.completed[i] = false;
+			b.predictedDistance[i] = 0;
+			b.intersectionTime[i] = 0;
+			risks[i] = 0;
+		}
 
+		final Vector position = b.position;
+		int active = count;
 		wave.storeState();
-		wave.resetState();
-		for (int timeOffset = startTime; timeOffset < maxTime; ++timeOffset) {
-			wave.update(state.time + timeOffset, sim.position);
-			if (wave.isCompleted()) {
-				risk += calculateWavePositionRisk(sim.position);
-				
-				MoveWave wave2 = move.getBestWave(Collections.singletonList(wave));
-				if(wave2 != null && !secondRisk) {
-					//TODO do second wave surfing
-					startTime = timeOffset;
-					MoveRisk tmpMoveRisk = copy();
-					tmpMoveRisk.secondRisk = true;
-					tmpMoveRisk.startTime = timeOffset;
-					tmpMoveRisk.maxTime = timeOffset + MAXIMUM_CALC_TIME;
-					tmpMoveRisk.wave = wave2;
-					
-					double forwardRisk = tmpMoveRisk.copy().calculateRisk(orbitDirection, Rules.MAX_VELOCITY);
-					double stopRisk = tmpMoveRisk.copy().calculateRisk(orbitDirection, 0);
-					double reverseRisk = tmpMoveRisk.calculateRisk(-orbitDirection, Rules.MAX_VELOCITY);
-					
-					risk += Math.max(stopRisk, Math.max(forwardRisk, reverseRisk)) / 2.0;
+		for (int timeOffset = startTime; timeOffset < maxTime && active > 0; ++timeOffset) {
+			for (int i = 0; i < count; ++i) {
+				if (b.completed[i]) {
+					continue;
+				}
+				position.setLocation(b.batch.x[i], b.batch.y[i]);
+				wave.setState(b.ranges[i], b.intersected[i], false);
+				wave.update(state.time + timeOffset, position);
+				b.ranges[i].set(wave.factorRange);
+				b.intersected[i] = wave.isIntersected();
+				if (wave.isCompleted()) {
+					b.completed[i] = true;
+					--active;
+					final double predictedDistance = b.predictedDistance[i] / b.intersectionTime[i];
+					double distanceRisk = startDistance / predictedDistance;
+					distanceRisk *= distanceRisk;
+					final double waveRisk = calculateWavePositionRisk(position);
+					risks[i] = waveRisk * distanceRisk;
+					// only look at the waves behind if this move can still be the best
+					if (risks[i] <= bound && depth + 1 < getSurfDepth()) {
+						final double nextBound = (bound / distanceRisk - waveRisk) / NEXT_WAVE_WEIGHT;
+						risks[i] += calculateNextWaveRisk(b, i, timeOffset, orbitDirections[i], nextBound)
+								* NEXT_WAVE_WEIGHT * distanceRisk;
+					}
+					if (risks[i] < bound) {
+						bound = risks[i];
+					}
+					continue;
+				} else if (wave.isIntersected()) {
+					b.predictedDistance[i] += wave.distance(position);
+					b.intersectionTime[i]++;
+				}
+				// Update simulation
+				move.path.calculatePath(position, wave, b.batch.heading[i], b.batch.velocity[i], orbitDirections[i]);
+				b.batch.angleToTurn[i] = move.path.getAngleToTurn();
+				b.batch.maxVelocity[i] = Math.min(move.path.getMaxVelocity(), maxVelocities[i]);
+				b.batch.direction[i] = move.path.getDirection();
+			}
+			b.batch.step();
+
+			if (move.drawing) {
+				for (int i = 0; i < count; ++i) {
+					if (!b.completed[i]) {
+						move.bot.g.drawRect((int) b.batch.x[i] - 2, (int) b.batch.y[i] - 2, 4, 4);
+					}
 				}
-				
-				break;
-			} else if (wave.isIntersected()) {
-				predictedDistance += wave.distance(sim.position);
-				intersectionTime++;
 			}
-			// Update simulation
-			move.path.calculatePath(sim.position, wave, sim.heading, sim.velocity, orbitDirection);
-			sim.angleToTurn = move.path.getAngleToTurn();
-			sim.maxVelocity = Math.min(move.path.getMaxVelocity(), maxVelocity);
-			sim.direction = move.path.getDirection();
-			sim.step();
-
-			move.bot.g.drawRect((int) sim.position.x - 2, (int) sim.position.y - 2, 4, 4);
 		}
 		wave.restoreState();
+		surfed.remove(depth);
+
+		double least = Double.POSITIVE_INFINITY;
+		for (int i = 0; i < count; ++i) {
+			least = Math.min(least, risks[i]);
+		}
+		return least;
+	}
+
+	/**
+	 * Calculates the least risk of the next wave after a move has passed this
+	 * one, by surfing it forward, stopped and in reverse from where the move
+	 * left off.
+	 */
+	private double calculateNextWaveRisk(final Branches b, final int i, final int timeOffset,
+			final int orbitDirection, final double bound) {
+		MoveWave nextWave = move.getBestWave(surfed);
+		if (nextWave == null) {
+			return 0;
+		}
+		b.batch.get(i, b.start);
+
+		// the same state may have been surfed from by another move
+		final long stateKey = getStateKey(b.start, orbitDirection, surfed.size(), getSurfDepth());
+		final long waveKey = getWaveKey(state.time + timeOffset, nextWave);
+		final double cached = move.riskCache.get(stateKey, waveKey, bound);
+		if (!Double.isNaN(cached)) {
+			return cached;
+		}
+
+		MoveRisk nextRisk = new MoveRisk(b.start, move, state, nextWave, branches, surfed);
+		nextRisk.startTime = timeOffset;
+		nextRisk.maxTime = timeOffset + MAXIMUM_CALC_TIME;
 
-		predictedDistance /= intersectionTime;
-		double distanceRisk = startDistance / predictedDistance;
-		distanceRisk *= distanceRisk;
+		final Branches next = getBranches(surfed.size());
+		next.orbitDirections[0] = orbitDirection;
+		next.maxVelocities[0] = Rules.MAX_VELOCITY;
+		next.orbitDirections[1] = orbitDirection;
+		next.maxVelocities[1] = 0;
+		next.orbitDirections[2] = -orbitDirection;
+		next.maxVelocities[2] = Rules.MAX_VELOCITY;
+		final double risk = nextRisk.calculateRisks(next.orbitDirections, next.maxVelocities, next.risks, 3, bound);
+		move.riskCache.put(stateKey, waveKey, getSurfDepth() - surfed.size(), risk, risk > bound);
+		return risk;
+	}
 
-		return risk * distanceRisk;
+	private Branches getBranches(final int depth) {
+		if (branches[depth] == null) {
+			branches[depth] = new Branches();
+		}
+		return branches[depth];
+	}
+
+	/**
+	 * Builds a key from a simulated state, quantized to a pixel in position, a
+	 * 512th of a turn in heading and half a pixel per turn in velocity.
+	 */
+	private static long getStateKey(final Simulation sim, final int orbitDirection, final int depth,
+			final int surfDepth) {
+		long key = Math.round(sim.position.x) & 0x3FFF;
+		key = (key << 14) | (Math.round(sim.position.y) & 0x3FFF);
+		key = (key << 9) | (Math.round(sim.heading * 512 / (2 * Math.PI)) & 0x1FF);
+		key = (key << 6) | ((Math.round(sim.velocity * 2) + 16) & 0x3F);
+		key = (key << 1) | (orbitDirection > 0 ? 1 : 0);
+		key = (key << 3) | depth;
+		key = (key << 3) | surfDepth;
+		return key;
+	}
+
+	/**
+	 * Builds a key from the time and the waves surfed so far, including the
+	 * next one. Each wave is told apart by its age and if it is a heat wave.
+	 */
+	private long getWaveKey(final long time, final MoveWave nextWave) {
+		long key = time & 0xFFFFF;
+		for (final MoveWave w : surfed) {
+			key = (key << 11) | getWaveTag(time, w);
+		}
+		key = (key << 11) | getWaveTag(time, nextWave);
+		return key;
+	}
+
+	private static long getWaveTag(final long time, final MoveWave w) {
+		return (((time - w.fireTime + 2) << 1) | (w.isHeatWave ? 1 : 0)) & 0x7FF;
 	}
-	
 }
@@ -30,6 +30,9 @@ import java.awt.geom.Arc2D;
 import java.util.ArrayList;
 import java.util.Iterator;
 
+import cs.Mint;
+import cs.util.FastMath;
+import cs.util.IntervalSet;
 import cs.util.NumberRange;
 import cs.util.Line;
 import cs.util.Tools;
@@ -54,9 +57,15 @@ final class BulletShadow {
 @SuppressWarnings("serial")
 public final class MoveWave extends Wave {
 	private static final double MAX_ESCAPE_FACTOR = 1.2;
+	/* Scratch space for shadow calculation, shared as the robot is single threaded */
+	private static final double[] intersections = new double[8];
+	private static final NumberRange shadowRange = new NumberRange();
+	private static final Line shadowLine = new Line();
+	private static final double[] shadowTimes = new double[2];
 	
 	private ArrayList<BulletShadow> unmergedShadows = new ArrayList<BulletShadow>();
-	private ArrayList<NumberRange> mergedShadows = new ArrayList<NumberRange>();
+	private final IntervalSet mergedShadows = new IntervalSet();
+	private final DangerProfile danger = new DangerProfile();
 	public MoveFormula formula;
 	public final boolean isHeatWave;
 	
@@ -64,6 +73,15 @@ public final class MoveWave extends Wave {
 		this.isHeatWave = isHeatWave;
 	}
 	
+	/**
+	 * Gets the danger profile of this wave, rebuilding it first if the guess
+	 * factor tree has changed.
+	 */
+	DangerProfile getDanger() {
+		danger.update(formula, Move.targetGuessFactorVersion, Mint.budget.getMoveNeighbors());
+		return danger;
+	}
+
 	//Adding bullet shadows
 	public void draw(Graphics2D g, long time) {
 		double radius = getRadius(time);
@@ -72,11 +90,22 @@ public final class MoveWave extends Wave {
 		Stroke oldStroke = g.getStroke();
 		g.setStroke(new BasicStroke(4));
 		g.setColor(Color.GREEN);
-		for(NumberRange range : mergedShadows) {
-			double start = Math.toDegrees(range.getMinimum() * escapeAngle + directAngle) - 90;
-			double extend = Math.toDegrees(range.getMaximum() * escapeAngle + directAngle) - 90;
+		int i = 0;
+		while(i < mergedShadows.getEdgeCount()) {
+			if(!mergedShadows.isCovered(i)) {
+				++i;
+				continue;
+			}
+			// draw each run of covered spans as one arc
+			int j = i + 1;
+			while(mergedShadows.isCovered(j)) {
+				++j;
+			}
+			double start = Math.toDegrees(mergedShadows.getEdge(i) * escapeAngle + directAngle) - 90;
+			double extend = Math.toDegrees(mergedShadows.getEdge(j) * escapeAngle + directAngle) - 90;
 			
 			g.draw(new Arc2D.Double(x - radius, y - radius, radius * 2, radius * 2, start, extend-start, Arc2D.OPEN));
+			i = j;
 		}
 		
 		g.setStroke(oldStroke);
@@ -89,51 +118,38 @@ public final class MoveWave extends Wave {
 		
 	}
 
+	private double getFactor(double px, double py) {
+		double angle = angleTo(px, py);
+		return Utils.normalRelativeAngle(angle - directAngle) / escapeAngle;
+	}
+
 	private void calculateShadow(Bullet b, Line line, long time) {
-		NumberRange range = new NumberRange(Short.MAX_VALUE, Short.MIN_VALUE);
+		NumberRange range = shadowRange;
+		range.set(Short.MAX_VALUE, Short.MIN_VALUE);
 
 		boolean intersect = false;
 
 		double radius = getRadius(time);
 		double nextRadius = getRadius(time + 1);
 
-		double[] current = Tools.intersectSegCircle(line.x1, line.y1, line.x2, line.y2, x, y, radius);
-		for(int i = 0; i < current.length; i += 2) {
-			double angle = angleTo(current[i], current[i + 1]);
-			double factor = Utils.normalRelativeAngle(angle - directAngle) / escapeAngle;
-			range.expand(factor);
-			intersect = true;
-		}
-		
-		double[] next = Tools.intersectSegCircle(line.x1, line.y1, line.x2, line.y2, x, y, nextRadius);
-		for(int i = 0; i < next.length; i += 2) {
-			double angle = angleTo(next[i], next[i + 1]);
-			double factor = Utils.normalRelativeAngle(angle - directAngle) / escapeAngle;
-			range.expand(factor);
+		int count = Tools.intersectSegCircle(line.x1, line.y1, line.x2, line.y2, x, y, radius, intersections, 0);
+		count += Tools.intersectSegCircle(line.x1, line.y1, line.x2, line.y2, x, y, nextRadius, intersections, count * 2);
+		for(int i = 0; i < count * 2; i += 2) {
+			range.expand(getFactor(intersections[i], intersections[i + 1]));
 			intersect = true;
 		}
 		
-		double distA = this.distanceSq(line.x1, line.y1);
-		if(distA < nextRadius * nextRadius && distA > radius * radius) {
-			double angle = angleTo(line.x1, line.y1);
-			double factor = Utils.normalRelativeAngle(angle - directAngle) / escapeAngle;
-			range.expand(factor);
+		if(Tools.isBetweenCircles(line.x1, line.y1, x, y, radius * radius, nextRadius * nextRadius)) {
+			range.expand(getFactor(line.x1, line.y1));
 			intersect = true;
 		}
 
-		double distB = this.distanceSq(line.x2, line.y2);
-		if(distB < nextRadius * nextRadius && distB > radius * radius) {
-			double angle = angleTo(line.x2, line.y2);
-			double factor = Utils.normalRelativeAngle(angle - directAngle) / escapeAngle;
-			range.expand(factor);
+		if(Tools.isBetweenCircles(line.x2, line.y2, x, y, radius * radius, nextRadius * nextRadius)) {
+			range.expand(getFactor(line.x2, line.y2));
 			intersect = true;
 		}
 
 		if(intersect) {
-			BulletShadow shadow = new BulletShadow();
-			shadow.b = b;
-			shadow.range = range;
-
 			//if shadow is entirely outside of the escape range, don't add it
 			
 			if((range.getMinimum() > MAX_ESCAPE_FACTOR && range.getMaximum() > MAX_ESCAPE_FACTOR)
@@ -146,105 +162,95 @@ public final class MoveWave extends Wave {
 				return;
 			}
 			
+			BulletShadow shadow = new BulletShadow();
+			shadow.b = b;
+			shadow.range = new NumberRange(range.getMinimum(), range.getMaximum());
+
 			unmergedShadows.add(shadow);
-			mergeShadow(shadow);
+			mergedShadows.add(shadow.range.getMinimum(), shadow.range.getMaximum());
 		}
 	}
 	public void addShadowForBullet(Vector position, Bullet b, long time) {
-		// until bullet is past wave calculate ahead
-		long timeOffset = 0;
-		double x = b.getX();
-		double y = b.getY();
-		double heading = b.getHeadingRadians();
-		double velocity = b.getVelocity();
-		do {
-			double r = getRadius(time + timeOffset);
-			Line line = Line.projection(x, y, heading,
+		final double bx = b.getX();
+		final double by = b.getY();
+		final double heading = b.getHeadingRadians();
+		final double velocity = b.getVelocity();
+		final double vx = FastMath.sin(heading) * velocity;
+		final double vy = FastMath.cos(heading) * velocity;
+		final double radius = getRadius(time);
+
+		long end = getShadowEndTime(position, bx, by, vx, vy, radius);
+
+		/*
+		 * The bullet can only be between the wave radius at the start and end of a
+		 * turn while it is within one turn of travel from the continuously expanding
+		 * wave front, which is inside the circle one turn ahead of the wave but not
+		 * inside the circle one turn behind it.
+		 */
+		if(!Tools.getTimesInsideGrowingCircle(bx, by, vx, vy, x, y, radius + speed, speed, shadowTimes)) {
+			return;
+		}
+		final long first = (long) Math.max(0, Math.ceil(shadowTimes[0]) - 1);
+		end = (long) Math.min(end, Math.floor(Math.min(shadowTimes[1], end)) + 1);
+
+		double behindStart = 0;
+		double behindEnd = -1;
+		if(Tools.getTimesInsideGrowingCircle(bx, by, vx, vy, x, y, radius - speed, speed, shadowTimes)) {
+			behindStart = shadowTimes[0];
+			behindEnd = shadowTimes[1];
+		}
+
+		for(long timeOffset = first; timeOffset < end; ++timeOffset) {
+			if(timeOffset > behindStart && timeOffset + 1 < behindEnd) {
+				continue;
+			}
+			Line line = shadowLine.setProjection(bx, by, heading,
 					velocity * timeOffset,
 					velocity * (timeOffset + 1));
-			//if the bullet has passed the distance between us and the incoming wave stop calculating
-			if(position.distanceSq(line.x1, line.y1) > distanceSq(position) - r * r) {
-				break;
-			}
 			calculateShadow(b, line, time + timeOffset);
-		} while(++timeOffset < 110);
+		}
 	}
 
-	private void mergeShadow(BulletShadow shadow) {
-		double min = shadow.range.getMinimum();
-		double max = shadow.range.getMaximum();
-
-		boolean merged = false;
-		for(NumberRange range : mergedShadows) {
-			if(!(min > range.getMaximum() || max < range.getMinimum())) {
-				//intersection
-				if(min < range.getMinimum() && max > range.getMaximum()) {
-					range.set(min, max);
-				}
-				//no change in max
-				if(max > range.getMinimum() && max < range.getMaximum()) {
-					if(min < range.getMinimum()) {
-						range.setMinimum(min);
-					}
-				}
-				//no change in min
-				if(min < range.getMaximum() && min > range.getMinimum()) {
-					if(max > range.getMaximum()) {
-						range.setMaximum(max);
-					}
-				}
-				merged = true;
-				break;
-			}
+	/**
+	 * Gets the first turn the bullet has passed the distance between us and the
+	 * wave, or the last turn we look ahead to, whichever comes first.
+	 */
+	private long getShadowEndTime(Vector position, double bx, double by, double vx, double vy, double radius) {
+		/*
+		 * The bullet has passed when |p + v t - position|^2 - distanceSq(position)
+		 * + (radius + speed t)^2 > 0, which opens upwards.
+		 */
+		final double mx = bx - position.x;
+		final double my = by - position.y;
+		final double a = vx * vx + vy * vy + speed * speed;
+		final double b = mx * vx + my * vy + radius * speed;
+		final double c = mx * mx + my * my - distanceSq(position) + radius * radius;
+		if(c > 0) {
+			return 0;
 		}
-
-		if(!merged) {
-			mergedShadows.add(shadow.range);
+		final long maximum = Mint.budget.getShadowTurns();
+		if(a == 0) {
+			return maximum;
 		}
+		final double last = (-b + Math.sqrt(b * b - a * c)) / a;
+		return (long) Math.min(maximum, Math.floor(last) + 1);
 	}
 
 	public void removeShadow(Bullet b) {
-		boolean removed = false;
 		Iterator<BulletShadow> it = unmergedShadows.iterator();
 		while(it.hasNext()) {
 			BulletShadow bs = it.next();
 			if(bs.equals(b)) {
 				it.remove();
-				removed = true;
+				mergedShadows.remove(bs.range.getMinimum(), bs.range.getMaximum());
 			}
 			//we may have more then one shadow for each bullet
 		}
-
-		if(removed) {
-			mergedShadows.clear();
-
-			//remerge all still existing shadows
-			for(BulletShadow bs : unmergedShadows) {
-				mergeShadow(bs);
-			}
-		}
 	}
 	
 	public double calculateShadowCoverage() {
-		/* determines how large our pass through the wave is in factor space */
-		
 		/* how much do the shadows cover our risk area */
-		double coveredRange = 0;
-		for(final NumberRange shadow : mergedShadows) {
-			if(shadow.getMinimum() >= factorRange.getMaximum()
-			|| shadow.getMaximum() <= factorRange.getMinimum()) {
-				continue;
-			}
-			double min = shadow.getMinimum();
-			double max = shadow.getMaximum();
-			if(min < factorRange.getMinimum()) {
-				min = factorRange.getMinimum();
-			}
-			if(max > factorRange.getMaximum()) {
-				max = factorRange.getMaximum();
-			}
-			coveredRange += max - min;
-		}
+		double coveredRange = mergedShadows.getCoveredLength(factorRange.getMinimum(), factorRange.getMaximum());
 		
 		return coveredRange / factorRange.getRange();
 	}
@@ -0,0 +1,111 @@
+/**
+ * Copyright (c) 2012-2017 Robert Maupin (Chase)
+ *
+ * This software is provided 'as-is', without any express or implied
+ * warranty. In no event will the authors be held liable for any damages
+ * arising from the use of this software.
+ *
+ * Permission is granted to anyone to use this software for any purpose,
+ * including commercial applications, and to alter it and redistribute it
+ * freely, subject to the following restrictions:
+ *
+ *    1. The origin of this software must not be misrepresented; you must not
+ *    claim that you wrote the original software. If you use this software
+ *    in a product, an acknowledgment in the product documentation would be
+ *    appreciated but is not required.
+ *
+ *    2. Altered source versions must be plainly marked as such, and must not be
+ *    misrepresented as being the original software.
+ *
+ *    3. This notice may not be removed or altered from any source
+ *    distribution.
+ */
+package cs.move;
+
+/**
+ * Remembers the risk of surfing the waves that remain from a given state, so
+ * that moves which end up in the same place at the same time, on the same
+ * turn or on later ones, do not surf them again. Each state is given by two
+ * keys built by {@link MoveRisk}.
+ * <p>
+ * Entries are kept in buckets of two. The first entry of a bucket keeps the
+ * search with the most waves left to surf, which is the most costly to redo,
+ * and the second is always replaced. Clearing the cache only marks every
+ * entry as stale.
+ *
+ * @author Robert Maupin (Chase)
+ */
+final class RiskCache {
+	private static final int BUCKET_BITS = 11;
+	private static final int SIZE = 2 << BUCKET_BITS;
+
+	private final long[] stateKeys = new long[SIZE];
+	private final long[] waveKeys = new long[SIZE];
+	private final double[] risks = new double[SIZE];
+	/** If the risk is only known to be at least the stored risk */
+	private final boolean[] lowerBounds = new boolean[SIZE];
+	private final int[] depths = new int[SIZE];
+	private final int[] generations = new int[SIZE];
+	private int generation = 1;
+
+	/**
+	 * Marks every entry as stale. This must be called whenever the waves, their
+	 * shadows or the guess factor data change.
+	 */
+	public void clear() {
+		++generation;
+	}
+
+	/**
+	 * Gets the risk stored for the given keys, if it can be used with the
+	 * given bound.
+	 *
+	 * @param bound
+	 *            The bound the risk would be searched with
+	 * @return the risk, or NaN if there is none that can be used
+	 */
+	public double get(final long stateKey, final long waveKey, final double bound) {
+		final int bucket = getBucket(stateKey, waveKey);
+		for(int i = bucket; i < bucket + 2; ++i) {
+			if(generations[i] == generation && stateKeys[i] == stateKey && waveKeys[i] == waveKey) {
+				// a lower bound is only good enough if it is past the bound
+				if(!lowerBounds[i] || risks[i] > bound) {
+					return risks[i];
+				}
+				return Double.NaN;
+			}
+		}
+		return Double.NaN;
+	}
+
+	/**
+	 * Stores the risk for the given keys.
+	 *
+	 * @param depth
+	 *            The number of waves left to surf
+	 * @param risk
+	 *            The risk
+	 * @param lowerBound
+	 *            If the risk is only a lower bound, as the search was cut short
+	 */
+	public void put(final long stateKey, final long waveKey, final int depth, final double risk,
+			final boolean lowerBound) {
+		final int bucket = getBucket(stateKey, waveKey);
+		int slot = bucket + 1;
+		if(generations[bucket] != generation || depth >= depths[bucket]
+				|| (stateKeys[bucket] == stateKey && waveKeys[bucket] == waveKey)) {
+			slot = bucket;
+		}
+		stateKeys[slot] = stateKey;
+		waveKeys[slot] = waveKey;
+		risks[slot] = risk;
+		lowerBounds[slot] = lowerBound;
+		depths[slot] = depth;
+		generations[slot] = generation;
+	}
+
+	private static int getBucket(final long stateKey, final long waveKey) {
+		final long hash = (stateKey * 0x9E3779B97F4A7C15L) ^ (waveKey * 0xC2B2AE3D27D4EB4FL);
+		return (int) (hash >>> (64 - BUCKET_BITS)) << 1;
+	}
+}
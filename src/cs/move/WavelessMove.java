@@ -114,7 +114,7 @@ public class WavelessMove {
 				}
 			}
 
-			angle += Math.PI / 32.0;
+			angle += Math.PI * 2 / Mint.budget.getMinRiskAngles();
 		}
 
 		double travelAngle = state.robotPosition.angleTo(bestTarget);
@@ -0,0 +1,132 @@
+/**
+ * Copyright (c) 2012-2017 Robert Maupin (Chase)
+ *
+ * This software is provided 'as-is', without any express or implied
+ * warranty. In no event will the authors be held liable for any damages
+ * arising from the use of this software.
+ *
+ * Permission is granted to anyone to use this software for any purpose,
+ * including commercial applications, and to alter it and redistribute it
+ * freely, subject to the following restrictions:
+ *
+ *    1. The origin of this software must not be misrepresented; you must not
+ *    claim that you wrote the original software. If you use this software
+ *    in a product, an acknowledgment in the product documentation would be
+ *    appreciated but is not required.
+ *
+ *    2. Altered source versions must be plainly marked as such, and must not be
+ *    misrepresented as being the original software.
+ *
+ *    3. This notice may not be removed or altered from any source
+ *    distribution.
+ */
+package cs.util;
+
+import robocode.Rules;
+import robocode.util.Utils;
+
+/**
+ * Simulates several robots at once, one turn at a time, each the same way a
+ * {@link Simulation} would. Every value is kept in its own array, indexed by
+ * the simulation, so stepping them all is a simple loop over the arrays.
+ *
+ * @author Robert Maupin (Chase)
+ */
+public final class BatchSimulation {
+	public final double[] x;
+	public final double[] y;
+	public final double[] heading;
+	public final double[] velocity;
+	public final double[] headingDelta;
+	public final double[] maxVelocity;
+	public final double[] angleToTurn;
+	public final int[] direction;
+	private int size;
+
+	/**
+	 * Creates a batch that can hold the given number of simulations.
+	 */
+	public BatchSimulation(final int capacity) {
+		x = new double[capacity];
+		y = new double[capacity];
+		heading = new double[capacity];
+		velocity = new double[capacity];
+		headingDelta = new double[capacity];
+		maxVelocity = new double[capacity];
+		angleToTurn = new double[capacity];
+		direction = new int[capacity];
+	}
+
+	/**
+	 * Removes every simulation from the batch.
+	 */
+	public void clear() {
+		size = 0;
+	}
+
+	/**
+	 * Adds a simulation to the batch, starting from the state of the given
+	 * simulation.
+	 *
+	 * @return the index of the added simulation
+	 */
+	public int add(final Simulation sim) {
+		final int i = size++;
+		x[i] = sim.position.x;
+		y[i] = sim.position.y;
+		heading[i] = sim.heading;
+		velocity[i] = sim.velocity;
+		headingDelta[i] = sim.headingDelta;
+		maxVelocity[i] = sim.maxVelocity;
+		angleToTurn[i] = sim.angleToTurn;
+		direction[i] = sim.direction;
+		return i;
+	}
+
+	/**
+	 * Copies the state of a simulation in the batch to the given simulation.
+	 */
+	public void get(final int i, final Simulation sim) {
+		sim.position.x = x[i];
+		sim.position.y = y[i];
+		sim.heading = heading[i];
+		sim.velocity = velocity[i];
+		sim.headingDelta = headingDelta[i];
+		sim.maxVelocity = maxVelocity[i];
+		sim.angleToTurn = angleToTurn[i];
+		sim.direction = direction[i];
+	}
+
+	/**
+	 * Gets the number of simulations in the batch.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Steps every simulation in the batch one turn into the future, see
+	 * {@link Simulation#step()}.
+	 */
+	public void step() {
+		for (int i = 0; i < size; ++i) {
+			////////////////
+			// Heading
+			final double lastHeading = heading[i];
+			final double turnRate = Rules.getTurnRateRadians(Math.abs(velocity[i]));
+			final double turn = Tools.limit(-turnRate, angleToTurn[i], turnRate);
+			heading[i] = Utils.normalNearAbsoluteAngle(lastHeading + turn);
+			angleToTurn[i] -= turn;
+
+			////////////////
+			// Movement
+			if (direction[i] != 0 || velocity[i] != 0.0) {
+				velocity[i] += Simulation.getAcceleration(velocity[i], maxVelocity[i], direction[i]);
+				x[i] += FastMath.sin(heading[i]) * velocity[i];
+				y[i] += FastMath.cos(heading[i]) * velocity[i];
+			}
+
+			headingDelta[i] = Utils.normalRelativeAngle(heading[i] - lastHeading);
+		}
+	}
+}
@@ -0,0 +1,145 @@
+/**
+ * Copyright (c) 2012-2017 Robert Maupin (Chase)
+ *
+ * This software is provided 'as-is', without any express or implied
+ * warranty. In no event will the authors be held liable for any damages
+ * arising from the use of this software.
+ *
+ * Permission is granted to anyone to use this software for any purpose,
+ * including commercial applications, and to alter it and redistribute it
+ * freely, subject to the following restrictions:
+ *
+ *    1. The origin of this software must not be misrepresented; you must not
+ *    claim that you wrote the original software. If you use this software
+ *    in a product, an acknowledgment in the product documentation would be
+ *    appreciated but is not required.
+ *
+ *    2. Altered source versions must be plainly marked as such, and must not be
+ *    misrepresented as being the original software.
+ *
+ *    3. This notice may not be removed or altered from any source
+ *    distribution.
+ */
+package cs.util;
+
+/**
+ * Table based trigonometry for the movement and wave prediction. The tables
+ * are interpolated, so sin and cos are within 3e-7 of exact and atan2 and
+ * asin are within 2e-8 radians. Setting {@link #exact} makes every method use
+ * the matching method in {@link Math} instead.
+ *
+ * @author Robert Maupin (Chase)
+ *
+ */
+public final class FastMath {
+	/**
+	 * Determines if the exact methods from Math should be used rather than the
+	 * tables.
+	 */
+	public static boolean exact = false;
+
+	private static final double HALF_PI = Math.PI / 2.0;
+	private static final int SIN_SIZE = 4096;
+	private static final int SIN_MASK = SIN_SIZE - 1;
+	private static final double SIN_SCALE = SIN_SIZE / (Math.PI * 2.0);
+	/** One complete period of sin, the last entry is the first again */
+	private static final double[] SIN_TABLE = new double[SIN_SIZE + 1];
+	private static final int ATAN_SIZE = 2048;
+	/** atan between 0 and 1 */
+	private static final double[] ATAN_TABLE = new double[ATAN_SIZE + 1];
+	static {
+		for(int i = 0; i <= SIN_SIZE; ++i) {
+			SIN_TABLE[i] = Math.sin(i / SIN_SCALE);
+		}
+		for(int i = 0; i <= ATAN_SIZE; ++i) {
+			ATAN_TABLE[i] = Math.atan(i / (double) ATAN_SIZE);
+		}
+	}
+
+	/**
+	 * Looks up sin, where the position is the angle in table steps.
+	 */
+	private static double lookupSin(final double position) {
+		final double floor = Math.floor(position);
+		final int index = (int) ((long) floor & SIN_MASK);
+		final double fraction = position - floor;
+		return SIN_TABLE[index] + (SIN_TABLE[index + 1] - SIN_TABLE[index]) * fraction;
+	}
+
+	/**
+	 * Returns the trigonometric sine of an angle.
+	 * @param angle an angle, in radians
+	 * @return the sine of the angle
+	 */
+	public static double sin(final double angle) {
+		if(exact) {
+			return Math.sin(angle);
+		}
+		return lookupSin(angle * SIN_SCALE);
+	}
+
+	/**
+	 * Returns the trigonometric cosine of an angle.
+	 * @param angle an angle, in radians
+	 * @return the cosine of the angle
+	 */
+	public static double cos(final double angle) {
+		if(exact) {
+			return Math.cos(angle);
+		}
+		return lookupSin(angle * SIN_SCALE + SIN_SIZE / 4);
+	}
+
+	/**
+	 * Returns the angle of the point (x, y) as {@link Math#atan2(double, double)}
+	 * does. Note that y is first.
+	 * @param y the ordinate coordinate
+	 * @param x the abscissa coordinate
+	 * @return the angle, between -pi and pi
+	 */
+	public static double atan2(final double y, final double x) {
+		if(exact) {
+			return Math.atan2(y, x);
+		}
+		final double ax = Math.abs(x);
+		final double ay = Math.abs(y);
+		if(ax == 0 && ay == 0) {
+			return Math.atan2(y, x);
+		}
+		// keep the table argument between 0 and 1
+		double angle;
+		if(ay > ax) {
+			angle = HALF_PI - lookupAtan(ax / ay);
+		} else {
+			angle = lookupAtan(ay / ax);
+		}
+		if(x < 0) {
+			angle = Math.PI - angle;
+		}
+		return y < 0 ? -angle : angle;
+	}
+
+	/**
+	 * Returns the arc sine of a value.
+	 * @param value the value, between -1 and 1
+	 * @return the arc sine, between -pi/2 and pi/2
+	 */
+	public static double asin(final double value) {
+		if(exact) {
+			return Math.asin(value);
+		}
+		return atan2(value, Math.sqrt(1.0 - value * value));
+	}
+
+	/**
+	 * Looks up atan for a value between 0 and 1.
+	 */
+	private static double lookupAtan(final double value) {
+		final double position = value * ATAN_SIZE;
+		final int index = Math.min(ATAN_SIZE - 1, (int) position);
+		return ATAN_TABLE[index] + (ATAN_TABLE[index + 1] - ATAN_TABLE[index]) * (position - index);
+	}
+
+	private FastMath() {
+	}
+}
@@ -0,0 +1,227 @@
+/**
+ * Copyright (c) 2012-2017 Robert Maupin (Chase)
+ *
+ * This software is provided 'as-is', without any express or implied
+ * warranty. In no event will the authors be held liable for any damages
+ * arising from the use of this software.
+ *
+ * Permission is granted to anyone to use this software for any purpose,
+ * including commercial applications, and to alter it and redistribute it
+ * freely, subject to the following restrictions:
+ *
+ *    1. The origin of this software must not be misrepresented; you must not
+ *    claim that you wrote the original software. If you use this software
+ *    in a product, an acknowledgment in the product documentation would be
+ *    appreciated but is not required.
+ *
+ *    2. Altered source versions must be plainly marked as such, and must not be
+ *    misrepresented as being the original software.
+ *
+ *    3. This notice may not be removed or altered from any source
+ *    distribution.
+ */
+package cs.util;
+
+/**
+ * A set of intervals that may overlap. The number line is split at every
+ * edge where the number of intervals covering it changes, and the edges are
+ * kept in order, so overlapping and touching intervals are always merged.
+ * Since each span between edges counts the intervals covering it, an
+ * interval can be removed again without rebuilding the others.
+ * <p>
+ * The length covered below each edge is kept as well, so finding how much of
+ * a range is covered is a binary search.
+ *
+ * @author Robert Maupin (Chase)
+ *
+ */
+public class IntervalSet {
+	private double[] edges = new double[16];
+	/** The number of intervals covering the span from each edge to the next */
+	private int[] counts = new int[16];
+	/** The length covered below each edge */
+	private double[] coveredBelow = new double[16];
+	private int size;
+
+	/**
+	 * Adds an interval to the set.
+	 * @param min start of the interval
+	 * @param max end of the interval
+	 */
+	public void add(double min, double max) {
+		change(min, max, 1);
+	}
+
+	/**
+	 * Removes an interval that was added to the set before.
+	 * @param min start of the interval
+	 * @param max end of the interval
+	 */
+	public void remove(double min, double max) {
+		change(min, max, -1);
+	}
+
+	/**
+	 * Removes every interval from the set.
+	 */
+	public void clear() {
+		size = 0;
+	}
+
+	/**
+	 * Gets the length of the given range that is covered by any interval.
+	 * @param min start of the range
+	 * @param max end of the range
+	 * @return covered length
+	 */
+	public double getCoveredLength(double min, double max) {
+		if(max <= min) {
+			return 0;
+		}
+		return getCoveredBelow(max) - getCoveredBelow(min);
+	}
+
+	/**
+	 * Gets the number of edges in the set.
+	 * @return number of edges
+	 */
+	public int getEdgeCount() {
+		return size;
+	}
+
+	/**
+	 * Gets the edge with the given index, the edges are in increasing order.
+	 * @param index index of the edge
+	 * @return the edge
+	 */
+	public double getEdge(int index) {
+		return edges[index];
+	}
+
+	/**
+	 * Determines if the span from the given edge to the next one is covered.
+	 * @param index index of the edge
+	 * @return true if the span is covered
+	 */
+	public boolean isCovered(int index) {
+		return index < size && counts[index] > 0;
+	}
+
+	private void change(double min, double max, int delta) {
+		if(!(max > min)) {
+			return;
+		}
+		final int start = insertEdge(min);
+		final int end = insertEdge(max);
+		for(int i = start; i < end; ++i) {
+			counts[i] += delta;
+		}
+		// only the two ends can have become needless
+		removeEdgeIfNeedless(end);
+		removeEdgeIfNeedless(start);
+		updateCoveredBelow(Math.max(0, start - 1));
+	}
+
+	private double getCoveredBelow(double value) {
+		if(size == 0 || value <= edges[0]) {
+			return 0;
+		}
+		final int index = getFloorIndex(value);
+		double covered = coveredBelow[index];
+		if(counts[index] > 0) {
+			covered += value - edges[index];
+		}
+		return covered;
+	}
+
+	/**
+	 * Gets the index of the greatest edge that is not more than the value.
+	 */
+	private int getFloorIndex(double value) {
+		int low = 0;
+		int high = size - 1;
+		while(low < high) {
+			final int mid = (low + high + 1) >>> 1;
+			if(edges[mid] <= value) {
+				low = mid;
+			} else {
+				high = mid - 1;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Gets the index of the least edge that is not less than the value, or the
+	 * size if there is none.
+	 */
+	private int getCeilingIndex(double value) {
+		int low = 0;
+		int high = size;
+		while(low < high) {
+			final int mid = (low + high) >>> 1;
+			if(edges[mid] < value) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	private int getCountBefore(int index) {
+		return index == 0 ? 0 : counts[index - 1];
+	}
+
+	/**
+	 * Inserts an edge, splitting the span it falls in.
+	 * @return the index of the edge
+	 */
+	private int insertEdge(double value) {
+		final int index = getCeilingIndex(value);
+		if(index < size && edges[index] == value) {
+			return index;
+		}
+		if(size == edges.length) {
+			final double[] newEdges = new double[size * 2];
+			final int[] newCounts = new int[size * 2];
+			final double[] newCoveredBelow = new double[size * 2];
+			System.arraycopy(edges, 0, newEdges, 0, size);
+			System.arraycopy(counts, 0, newCounts, 0, size);
+			System.arraycopy(coveredBelow, 0, newCoveredBelow, 0, size);
+			edges = newEdges;
+			counts = newCounts;
+			coveredBelow = newCoveredBelow;
+		}
+		System.arraycopy(edges, index, edges, index + 1, size - index);
+		System.arraycopy(counts, index, counts, index + 1, size - index);
+		edges[index] = value;
+		counts[index] = getCountBefore(index);
+		++size;
+		return index;
+	}
+
+	/**
+	 * Removes an edge if the count is the same on both sides of it.
+	 */
+	private void removeEdgeIfNeedless(int index) {
+		if(counts[index] != getCountBefore(index)) {
+			return;
+		}
+		--size;
+		System.arraycopy(edges, index + 1, edges, index, size - index);
+		System.arraycopy(counts, index + 1, counts, index, size - index);
+	}
+
+	private void updateCoveredBelow(int start) {
+		if(start == 0) {
+			coveredBelow[0] = 0;
+		}
+		for(int i = Math.max(1, start + 1); i < size; ++i) {
+			coveredBelow[i] = coveredBelow[i - 1];
+			if(counts[i - 1] > 0) {
+				coveredBelow[i] += edges[i] - edges[i - 1];
+			}
+		}
+	}
+}
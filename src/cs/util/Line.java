@@ -46,18 +46,23 @@ public class Line extends Line2D.Double {
 		Line line = new Line();
 		line.x1 = x;
 		line.y1 = y;
-		line.x2 = x + Math.sin(angle) * dist;
-		line.y2 = y + Math.cos(angle) * dist;
+		line.x2 = x + FastMath.sin(angle) * dist;
+		line.y2 = y + FastMath.cos(angle) * dist;
 		return line;
 	}
 
 	public static final Line projection(double x, double y, double angle, double dist1, double dist2) {
-		Line line = new Line();
-		line.x1 = x + Math.sin(angle) * dist1;
-		line.y1 = y + Math.cos(angle) * dist1;
-		line.x2 = x + Math.sin(angle) * dist2;
-		line.y2 = y + Math.cos(angle) * dist2;
-		return line;
+		return new Line().setProjection(x, y, angle, dist1, dist2);
+	}
+
+	public final Line setProjection(double x, double y, double angle, double dist1, double dist2) {
+		final double sin = FastMath.sin(angle);
+		final double cos = FastMath.cos(angle);
+		x1 = x + sin * dist1;
+		y1 = y + cos * dist1;
+		x2 = x + sin * dist2;
+		y2 = y + cos * dist2;
+		return this;
 	}
 
 	public Vector getMidPoint() {
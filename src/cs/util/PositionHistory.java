@@ -0,0 +1,109 @@
+/**
+ * Copyright (c) 2012-2017 Robert Maupin (Chase)
+ *
+ * This software is provided 'as-is', without any express or implied
+ * warranty. In no event will the authors be held liable for any damages
+ * arising from the use of this software.
+ *
+ * Permission is granted to anyone to use this software for any purpose,
+ * including commercial applications, and to alter it and redistribute it
+ * freely, subject to the following restrictions:
+ *
+ *    1. The origin of this software must not be misrepresented; you must not
+ *    claim that you wrote the original software. If you use this software
+ *    in a product, an acknowledgment in the product documentation would be
+ *    appreciated but is not required.
+ *
+ *    2. Altered source versions must be plainly marked as such, and must not be
+ *    misrepresented as being the original software.
+ *
+ *    3. This notice may not be removed or altered from any source
+ *    distribution.
+ */
+package cs.util;
+
+/**
+ * A fixed size history of positions. Once it is full, each new position
+ * replaces the oldest one. Every position is given an index when it is added,
+ * starting at zero and counting up, which can be used to read it back for as
+ * long as it is kept.
+ *
+ * @author Robert Maupin (Chase)
+ *
+ */
+public class PositionHistory {
+	private final double[] x;
+	private final double[] y;
+	private int count;
+
+	/**
+	 * Creates a history that keeps the given number of positions.
+	 * @param capacity the number of positions to keep
+	 */
+	public PositionHistory(int capacity) {
+		x = new double[capacity];
+		y = new double[capacity];
+		count = 0;
+	}
+
+	/**
+	 * Adds a position to the history.
+	 * @param p the position
+	 * @return the index of the position
+	 */
+	public int add(Vector p) {
+		final int slot = count % x.length;
+		x[slot] = p.x;
+		y[slot] = p.y;
+		return count++;
+	}
+
+	/**
+	 * Gets the index of the oldest position still kept.
+	 * @return oldest index
+	 */
+	public int getOldestIndex() {
+		return Math.max(0, count - x.length);
+	}
+
+	/**
+	 * Gets the x coordinate of the position with the given index.
+	 * @param index index of the position
+	 * @return x coordinate
+	 */
+	public double getX(int index) {
+		return x[index % x.length];
+	}
+
+	/**
+	 * Gets the y coordinate of the position with the given index.
+	 * @param index index of the position
+	 * @return y coordinate
+	 */
+	public double getY(int index) {
+		return y[index % y.length];
+	}
+
+	/**
+	 * Gets the distance between the position with the given index and the
+	 * position a number of entries before it. If the history does not go back
+	 * that far, the oldest position kept is used instead.
+	 * @param index index of the position
+	 * @param back how many entries to go back
+	 * @return distance between the two positions
+	 */
+	public double distanceBack(int index, int back) {
+		final int past = Math.max(getOldestIndex(), index - back);
+		final double dx = getX(index) - getX(past);
+		final double dy = getY(index) - getY(past);
+		return Math.sqrt(dx * dx + dy * dy);
+	}
+
+	/**
+	 * Gets the number of positions that have been added.
+	 * @return number of positions
+	 */
+	public int size() {
+		return count;
+	}
+}
@@ -90,18 +90,30 @@ public final class Simulation {
 		if (direction != 0 || velocity != 0.0) {
 			// //////////////
 			// Velocity
-			velocity += getAcceleration();
+			velocity += getAcceleration(velocity, maxVelocity, direction);
 
 			////////////////
 			// Position
-			position.x += Math.sin(heading) * velocity;
-			position.y += Math.cos(heading) * velocity;
+			position.x += FastMath.sin(heading) * velocity;
+			position.y += FastMath.cos(heading) * velocity;
 		}
 
 		headingDelta = Utils.normalRelativeAngle(heading - lastHeading);
 	}
 
-	private double getAcceleration() {
+	/**
+	 * Determines the acceleration of a robot for one turn. This is shared with
+	 * the {@link BatchSimulation} so that both move robots the same way.
+	 * 
+	 * @param velocity
+	 *            The current velocity
+	 * @param maxVelocity
+	 *            The maximum velocity the robot is allowed
+	 * @param direction
+	 *            The direction the robot wants to move, 0 to stop
+	 * @return the change in velocity
+	 */
+	static double getAcceleration(final double velocity, final double maxVelocity, final int direction) {
 		double acceleration = 0;
 		double speed = Math.abs(velocity);
 		double usedMaxVelocity = Math.abs(maxVelocity);
@@ -37,6 +37,8 @@ public class Tools {
 	private static final double ONE_HALF_PI = Math.PI*2.0;
 	private static final double TWO_PI = Math.PI*2.0;
 	private static final int WALL_MARGIN = 18;
+	/** Half the step size the orbital wall distance was originally sampled at */
+	private static final double ORBIT_HALF_STEP = 0.005;
 
 	private static final double distanceWest(final double toWall, final double eDist, final double eAngle,
 			final int oDir) {
@@ -117,62 +119,49 @@ public class Tools {
 	 */
 	public static final double[] intersectRectCircle(final double rx, final double ry, final double rw,
 			final double rh, final double cx, final double cy, final double r) {
-		final double mx = rx + rw;
-		final double my = ry + rh;
 		// every line can intersect twice, meaning 4 points at most per line
 		final double[] intersect = new double[16];
-		int n = 0;
-		double[] in = intersectSegCircle(rx, ry, mx, ry, cx, cy, r); // top
-		/*
-		 * for(int i=0;i!=in.length;++i) intersect[n++] = in[i];
-		 * 
-		 * Equivalent to below, just the hardcoded ifs are faster
-		 */
-		if (in.length == 2) {
-			intersect[n++] = in[0];
-			intersect[n++] = in[1];
-		} else if (in.length == 4) {
-			intersect[n++] = in[0];
-			intersect[n++] = in[1];
-			intersect[n++] = in[2];
-			intersect[n++] = in[3];
-		}
-		in = intersectSegCircle(rx, my, mx, my, cx, cy, r); // bottom
-		if (in.length == 2) {
-			intersect[n++] = in[0];
-			intersect[n++] = in[1];
-		} else if (in.length == 4) {
-			intersect[n++] = in[0];
-			intersect[n++] = in[1];
-			intersect[n++] = in[2];
-			intersect[n++] = in[3];
-		}
-		in = intersectSegCircle(rx, ry, rx, my, cx, cy, r); // left
-		if (in.length == 2) {
-			intersect[n++] = in[0];
-			intersect[n++] = in[1];
-		} else if (in.length == 4) {
-			intersect[n++] = in[0];
-			intersect[n++] = in[1];
-			intersect[n++] = in[2];
-			intersect[n++] = in[3];
-		}
-		in = intersectSegCircle(mx, ry, mx, my, cx, cy, r); // right
-		if (in.length == 2) {
-			intersect[n++] = in[0];
-			intersect[n++] = in[1];
-		} else if (in.length == 4) {
-			intersect[n++] = in[0];
-			intersect[n++] = in[1];
-			intersect[n++] = in[2];
-			intersect[n++] = in[3];
-		}
+		final int n = intersectRectCircle(rx, ry, rw, rh, cx, cy, r, intersect) * 2;
 		final double[] output = new double[n];
 		// arraycopy is faster then using loop (uses a native method)
 		System.arraycopy(intersect, 0, output, 0, n);
 		return output;
 	}
 
+	/**
+	 * Determines the points of intersection of a given rectangle and circle,
+	 * writing them into the given array rather than creating a new one.
+	 * 
+	 * @param rx
+	 *            The rectangles corner x position
+	 * @param ry
+	 *            The rectangles corner y position
+	 * @param rw
+	 *            The rectangles width
+	 * @param rh
+	 *            The rectangles height
+	 * @param cx
+	 *            The circles center x position
+	 * @param cy
+	 *            The circles center y position
+	 * @param r
+	 *            The circles radius
+	 * @param out
+	 *            The array to write the concatenated x,y coordinates to
+	 *            {x1,y1,x2,y2,...}, it must have room for 8 points
+	 * @return The number of points of intersection
+	 */
+	public static final int intersectRectCircle(final double rx, final double ry, final double rw,
+			final double rh, final double cx, final double cy, final double r, final double[] out) {
+		final double mx = rx + rw;
+		final double my = ry + rh;
+		int n = intersectSegCircle(rx, ry, mx, ry, cx, cy, r, out, 0); // top
+		n += intersectSegCircle(rx, my, mx, my, cx, cy, r, out, n * 2); // bottom
+		n += intersectSegCircle(rx, ry, rx, my, cx, cy, r, out, n * 2); // left
+		n += intersectSegCircle(mx, ry, mx, my, cx, cy, r, out, n * 2); // right
+		return n;
+	}
+
 	/**
 	 * Returns an array of vectors where the rectangle intersect a circle at c
 	 * with radius r.
@@ -240,6 +229,43 @@ public class Tools {
 	 */
 	public static final double[] intersectSegCircle(final double lax, final double lay, final double lbx,
 			final double lby, final double cx, final double cy, final double r) {
+		final double[] intersect = new double[4];
+		final int n = intersectSegCircle(lax, lay, lbx, lby, cx, cy, r, intersect, 0) * 2;
+		if (n == intersect.length) {
+			return intersect;
+		}
+		final double[] output = new double[n];
+		System.arraycopy(intersect, 0, output, 0, n);
+		return output;
+	}
+
+	/**
+	 * Determines the intersection point between a given line and a circle,
+	 * writing them into the given array rather than creating a new one.
+	 * 
+	 * @param lax
+	 *            The x position of the lines first point.
+	 * @param lay
+	 *            The y position of the lines first point.
+	 * @param lbx
+	 *            The x position of the lines second point.
+	 * @param lby
+	 *            The y position of the lines second point.
+	 * @param cx
+	 *            The circles center x position
+	 * @param cy
+	 *            The circles center y position
+	 * @param r
+	 *            The circles radius
+	 * @param out
+	 *            The array to write the concatenated x,y coordinates to, it
+	 *            must have room for 2 points after the offset
+	 * @param offset
+	 *            The index in the array to start writing at
+	 * @return The number of intersection points, 0 if they do not intersect.
+	 */
+	public static final int intersectSegCircle(final double lax, final double lay, final double lbx,
+			final double lby, final double cx, final double cy, final double r, final double[] out, int offset) {
 		final double diffx = cx - lax;
 		final double diffy = cy - lay;
 		double dirx = lbx - lax;
@@ -256,21 +282,137 @@ public class Tools {
 			discr = Math.sqrt(discr);
 			final double m1 = a1 - discr;
 			final double m2 = a1 + discr;
-			if (m1 > 0 && m1 * m1 < lengthSq && m2 > 0 && m2 * m2 < lengthSq) {
-				return new double[] { lax + m1 * dirx, lay + m1 * diry, lax + m2 * dirx, lay + m2 * diry };
-			} else if (m1 > 0 && m1 * m1 < lengthSq) {
-				return new double[] { lax + m1 * dirx, lay + m1 * diry };
-			} else if (m2 > 0 && m2 * m2 < lengthSq) {
-				return new double[] { lax + m2 * dirx, lay + m2 * diry };
+			int n = 0;
+			if (m1 > 0 && m1 * m1 < lengthSq) {
+				out[offset++] = lax + m1 * dirx;
+				out[offset++] = lay + m1 * diry;
+				++n;
 			}
+			if (m2 > 0 && m2 * m2 < lengthSq) {
+				out[offset++] = lax + m2 * dirx;
+				out[offset++] = lay + m2 * diry;
+				++n;
+			}
+			return n;
 		} else if (discr == 0) {
 			final double lengthSq = (lbx - lax) * (lbx - lax) + (lby - lay) * (lby - lay);
 			/* We have ourselves a tangent */
 			if (a1 > 0 && a1 * a1 < lengthSq) {
-				return new double[] { lax + a1 * dirx, lay + a1 * diry };
+				out[offset++] = lax + a1 * dirx;
+				out[offset++] = lay + a1 * diry;
+				return 1;
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * Determines if a point is between two circles with the same center, that
+	 * is at least the inner radius from the center and less than the outer.
+	 * 
+	 * @param px
+	 *            The points x position
+	 * @param py
+	 *            The points y position
+	 * @param cx
+	 *            The circles center x position
+	 * @param cy
+	 *            The circles center y position
+	 * @param innerSq
+	 *            The inner radius squared
+	 * @param outerSq
+	 *            The outer radius squared
+	 * @return true if the point is between the circles, false otherwise
+	 */
+	public static final boolean isBetweenCircles(final double px, final double py, final double cx,
+			final double cy, final double innerSq, final double outerSq) {
+		final double dx = px - cx;
+		final double dy = py - cy;
+		final double distSq = dx * dx + dy * dy;
+		return distSq < outerSq && distSq > innerSq;
+	}
+
+	/**
+	 * Finds when a point moving in a straight line is inside a circle whose
+	 * radius grows at a steady rate. At time t the point is at (px + vx * t,
+	 * py + vy * t) and the radius is r + dr * t. Since the distance of the point
+	 * from the center is convex in time, these times form a single interval.
+	 * 
+	 * @param px
+	 *            The points x position at time zero
+	 * @param py
+	 *            The points y position at time zero
+	 * @param vx
+	 *            The points x velocity
+	 * @param vy
+	 *            The points y velocity
+	 * @param cx
+	 *            The circles center x position
+	 * @param cy
+	 *            The circles center y position
+	 * @param r
+	 *            The circles radius at time zero
+	 * @param dr
+	 *            The growth of the radius per unit of time
+	 * @param out
+	 *            The array to write the first and last time to, either may be
+	 *            infinite
+	 * @return true if the point is ever inside the circle, false otherwise
+	 */
+	public static final boolean getTimesInsideGrowingCircle(final double px, final double py, final double vx,
+			final double vy, final double cx, final double cy, final double r, final double dr, final double[] out) {
+		final double qx = px - cx;
+		final double qy = py - cy;
+		/*
+		 * Inside means |q + v t|^2 - (r + dr t)^2 <= 0, which is a t^2 + 2 b t + c <= 0,
+		 * while the radius r + dr t is not negative.
+		 */
+		final double a = vx * vx + vy * vy - dr * dr;
+		final double b = qx * vx + qy * vy - r * dr;
+		final double c = qx * qx + qy * qy - r * r;
+
+		double min = Double.NEGATIVE_INFINITY;
+		double max = Double.POSITIVE_INFINITY;
+		if (dr > 0) {
+			min = -r / dr;
+		} else if (dr < 0) {
+			max = -r / dr;
+		} else if (r < 0) {
+			return false;
+		}
+
+		final double discr = b * b - a * c;
+		if (a > 0) {
+			if (discr < 0) {
+				return false;
+			}
+			final double root = Math.sqrt(discr);
+			min = Math.max(min, (-b - root) / a);
+			max = Math.min(max, (-b + root) / a);
+		} else if (a < 0) {
+			/*
+			 * The circle grows faster than the point moves, it is inside on both sides
+			 * of the roots, but only one side has a radius that is not negative.
+			 */
+			if (discr >= 0) {
+				final double root = Math.sqrt(discr);
+				if (dr > 0) {
+					min = Math.max(min, (-b - root) / a);
+				} else {
+					max = Math.min(max, (-b + root) / a);
+				}
 			}
+		} else if (b > 0) {
+			max = Math.min(max, -c / (2 * b));
+		} else if (b < 0) {
+			min = Math.max(min, -c / (2 * b));
+		} else if (c > 0) {
+			return false;
 		}
-		return new double[0];
+
+		out[0] = min;
+		out[1] = max;
+		return min <= max;
 	}
 
 	/**
@@ -288,9 +430,33 @@ public class Tools {
 		return value > max ? max : value < min ? min : value;
 	}
 
+	/**
+	 * Quantizes a value in the range [0,1] to a single unsigned byte. Values
+	 * outside of the range are clamped.
+	 * 
+	 * @param value
+	 *            The value to quantize
+	 * @return the quantized value, between 0 and 255
+	 */
+	public static int quantizeUnit(final double value) {
+		return (int) Math.round(limit(0, value, 1) * 255);
+	}
+
+	/**
+	 * Restores a value quantized by {@link #quantizeUnit(double)}.
+	 * 
+	 * @param value
+	 *            The quantized value, between 0 and 255
+	 * @return the value in the range [0,1]
+	 */
+	public static double dequantizeUnit(final int value) {
+		return (value & 0xFF) / 255.0;
+	}
+
 	/**
 	 * Taken from Diamond. Calculate the orbital distance to a forward or
-	 * backward wall.
+	 * backward wall. Rather than stepping along the orbit, this finds where the
+	 * orbit first crosses each of the battlefield edges.
 	 * 
 	 * @author Voidious (original)
 	 * @author Chase (porting)
@@ -300,18 +466,70 @@ public class Tools {
 		final double absBearing = sourceLocation.angleTo(targetLocation);
 		final double distance = sourceLocation.distance(targetLocation);
 		final double maxEscapeAngle = Math.asin(8.0 / (20 - 3.0 * bulletPower));
+		if (!battlefield.contains(sourceLocation.x + Math.sin(absBearing) * distance,
+				sourceLocation.y + Math.cos(absBearing) * distance)) {
+			return 0;
+		}
 		// 1.0 means the max range of orbital movement
 		// exactly reaches bounds of battle field
-		double wallDistance = 2.0;
-		for (int x = 0; x < 200; x++) {
-			if (!battlefield.contains(
-					sourceLocation.x + Math.sin(absBearing + direction * (x / 100.0) * maxEscapeAngle) * distance,
-					sourceLocation.y + Math.cos(absBearing + direction * (x / 100.0) * maxEscapeAngle) * distance)) {
-				wallDistance = x / 100.0;
-				break;
+		double wallAngle = 2.0 * maxEscapeAngle;
+		if (distance > 0) {
+			/*
+			 * The target starts inside the battlefield, so the first edge the orbit
+			 * crosses is where it leaves. x = sin(angle) * distance and
+			 * y = cos(angle) * distance relative to the source.
+			 */
+			final double west = (battlefield.x - sourceLocation.x) / distance;
+			final double east = (battlefield.x + battlefield.width - sourceLocation.x) / distance;
+			final double south = (battlefield.y - sourceLocation.y) / distance;
+			final double north = (battlefield.y + battlefield.height - sourceLocation.y) / distance;
+			if (Math.abs(west) <= 1) {
+				final double angle = Math.asin(west);
+				wallAngle = nearerOrbitAngle(wallAngle, angle, absBearing, direction);
+				wallAngle = nearerOrbitAngle(wallAngle, PI - angle, absBearing, direction);
+			}
+			if (Math.abs(east) <= 1) {
+				final double angle = Math.asin(east);
+				wallAngle = nearerOrbitAngle(wallAngle, angle, absBearing, direction);
+				wallAngle = nearerOrbitAngle(wallAngle, PI - angle, absBearing, direction);
+			}
+			if (Math.abs(south) <= 1) {
+				final double angle = Math.acos(south);
+				wallAngle = nearerOrbitAngle(wallAngle, angle, absBearing, direction);
+				wallAngle = nearerOrbitAngle(wallAngle, -angle, absBearing, direction);
+			}
+			if (Math.abs(north) <= 1) {
+				final double angle = Math.acos(north);
+				wallAngle = nearerOrbitAngle(wallAngle, angle, absBearing, direction);
+				wallAngle = nearerOrbitAngle(wallAngle, -angle, absBearing, direction);
 			}
 		}
-		return wallDistance;
+		/*
+		 * The original stepped along the orbit in steps of 0.01 and returned the
+		 * first step outside, so it was up to one step past the crossing. Half a
+		 * step keeps this within half a step of it, and learned data compatible.
+		 */
+		return Math.min(2.0, wallAngle / maxEscapeAngle + ORBIT_HALF_STEP);
+	}
+
+	/**
+	 * Measures how far along the orbit an edge crossing is, and keeps it if it
+	 * is nearer than the current nearest.
+	 * 
+	 * @param nearest
+	 *            The angle along the orbit of the nearest crossing so far
+	 * @param angle
+	 *            The absolute angle of the crossing
+	 * @param absBearing
+	 *            The absolute angle the orbit starts at
+	 * @param direction
+	 *            The direction of the orbit
+	 * @return the nearer of the two angles along the orbit
+	 */
+	private static double nearerOrbitAngle(final double nearest, final double angle, final double absBearing,
+			final int direction) {
+		final double offset = Utils.normalAbsoluteAngle(direction * (angle - absBearing));
+		return offset > 0 && offset < nearest ? offset : nearest;
 	}
 
 	/**
@@ -79,7 +79,7 @@ public class Vector extends Point2D.Double implements Cloneable {
 	 *         format).
 	 */
 	public final double angleFrom(final double x, final double y) {
-		return Math.atan2(this.x - x, this.y - y);
+		return FastMath.atan2(this.x - x, this.y - y);
 	}
 
 	/**
@@ -90,7 +90,7 @@ public class Vector extends Point2D.Double implements Cloneable {
 	 * @return The angle from the given vector to this vector (in robocode format).
 	 */
 	public final double angleFrom(final Vector p) {
-		return Math.atan2(x - p.x, y - p.y);
+		return FastMath.atan2(x - p.x, y - p.y);
 	}
 
 	/**
@@ -104,7 +104,7 @@ public class Vector extends Point2D.Double implements Cloneable {
 	 *         format).
 	 */
 	public final double angleTo(final double x, final double y) {
-		return Math.atan2(x - this.x, y - this.y);
+		return FastMath.atan2(x - this.x, y - this.y);
 	}
 
 	/**
@@ -115,7 +115,7 @@ public class Vector extends Point2D.Double implements Cloneable {
 	 * @return The angle from this vector to the given vector (in robocode format).
 	 */
 	public final double angleTo(final Vector p) {
-		return Math.atan2(p.x - x, p.y - y);
+		return FastMath.atan2(p.x - x, p.y - y);
 	}
 
 	@Override
@@ -163,8 +163,8 @@ public class Vector extends Point2D.Double implements Cloneable {
 	 * @return this vector
 	 */
 	public final Vector project(final double angle, final double distance) {
-		x += Math.sin(angle) * distance;
-		y += Math.cos(angle) * distance;
+		x += FastMath.sin(angle) * distance;
+		y += FastMath.cos(angle) * distance;
 		return this;
 	}
 
@@ -194,8 +194,8 @@ public class Vector extends Point2D.Double implements Cloneable {
 	 * @return this vector
 	 */
 	public final Vector setLocationAndProject(final Vector vec, final double angle, final double distance) {
-		x = vec.x + Math.sin(angle) * distance;
-		y = vec.y + Math.cos(angle) * distance;
+		x = vec.x + FastMath.sin(angle) * distance;
+		y = vec.y + FastMath.cos(angle) * distance;
 		return this;
 	}
 
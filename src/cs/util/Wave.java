@@ -25,6 +25,7 @@ package cs.util;
 import java.awt.Graphics2D;
 import java.awt.geom.Arc2D;
 
+import robocode.Rules;
 import robocode.util.Utils;
 
 
@@ -44,6 +45,13 @@ public class Wave extends Vector {
 	public NumberRange factorRange = new NumberRange(Byte.MAX_VALUE, Byte.MIN_VALUE);
 	protected boolean intersected = false;
 	protected boolean completed = false;
+	/** The time a scheduler should next look at this wave */
+	long wakeTime;
+
+	/** Half the diagonal of a robot, the furthest a robot edge can be from its center */
+	private static final double HALF_DIAGONAL = 18 * Math.sqrt(2);
+	/* Intersection points, shared as the robot is single threaded */
+	private static final double[] intersections = new double[16];
 
 	private NumberRange storedFactorRange = new NumberRange();
 	private boolean storedIntersected = false;
@@ -64,15 +72,25 @@ public class Wave extends Vector {
 	 * @param points
 	 *            a set of intersection points in a concatenated array.
 	 *            {x1,y1,x2,y2,...}
+	 * @param count
+	 *            the number of points in the array
 	 */
-	private void expandMinMaxFactors(final double[] points) {
-		for(int i = 0; i < points.length; i += 2) {
-			final double angle = angleTo(points[i], points[i + 1]);
-			final double factor = Utils.normalRelativeAngle(angle - directAngle) / escapeAngle;
-			factorRange.expand(factor);
+	private void expandMinMaxFactors(final double[] points, final int count) {
+		for(int i = 0; i < count * 2; i += 2) {
+			expandMinMaxFactor(points[i], points[i + 1]);
 		}
 	}
 
+	/**
+	 * Updates the minimum and maximum intersection factors for a single
+	 * intersection point.
+	 */
+	private void expandMinMaxFactor(final double px, final double py) {
+		final double angle = angleTo(px, py);
+		final double factor = Utils.normalRelativeAngle(angle - directAngle) / escapeAngle;
+		factorRange.expand(factor);
+	}
+
 	/**
 	 * Get the estimated number of turns until the wave reaches the target given
 	 * the current time.
@@ -84,11 +102,36 @@ public class Wave extends Vector {
 	 * @return The estimated number of turns until the wave reaches the target.
 	 */
 	public double getETA(Vector target, long time) {
-		final double halfBotWidth = 18 + Math.sin(angleTo(target)) * 7.4558441;
+		final double halfBotWidth = 18 + FastMath.sin(angleTo(target)) * 7.4558441;
 		double distance = distance(target) - getRadius(time) - halfBotWidth;
 		return (distance / speed);
 	}
 
+	/**
+	 * Gets the earliest time this wave could touch the target, given where the
+	 * target is now. The target is assumed to drive straight at the wave at
+	 * full speed, so before this time {@link #update(long, Vector)} cannot
+	 * find an intersection and does not need to be called.
+	 *
+	 * @param time
+	 *            The current time
+	 * @param target
+	 *            The position of the target at the current time
+	 * @return The earliest time the wave could intersect the target
+	 */
+	public long getContactTime(final long time, final Vector target) {
+		/*
+		 * Contact needs radius + speed >= distance - HALF_DIAGONAL, with the
+		 * distance shrinking by at most MAX_VELOCITY each turn.
+		 */
+		final double gap = distance(target) - HALF_DIAGONAL - speed * (time - fireTime + 1);
+		if(gap <= 0) {
+			return time;
+		}
+		// one turn earlier, in case of rounding
+		return time + (long) (gap / (speed + Rules.MAX_VELOCITY)) - 1;
+	}
+
 	/**
 	 * Determines the radius this wave would have given a certain time.
 	 *
@@ -140,6 +183,16 @@ public class Wave extends Vector {
 		completed = storedCompleted;
 	}
 
+	/**
+	 * Sets the state, so that one wave can be updated for several simulated
+	 * paths in turn.
+	 */
+	public void setState(final NumberRange range, final boolean intersected, final boolean completed) {
+		factorRange.set(range);
+		this.intersected = intersected;
+		this.completed = completed;
+	}
+
 	/** Backs up the current state. */
 	public void storeState() {
 		storedFactorRange.set(factorRange);
@@ -160,28 +213,35 @@ public class Wave extends Vector {
 	public void update(final long time, final Vector target) {
 		boolean intersects = false;
 		final double radius = getRadius(time);
-		double[] pnts = Tools.intersectRectCircle(target.x - 18, target.y - 18, 36, 36, x, y, radius);
-		if(pnts.length != 0) {
-			expandMinMaxFactors(pnts);
+		int count = Tools.intersectRectCircle(target.x - 18, target.y - 18, 36, 36, x, y, radius, intersections);
+		if(count != 0) {
+			expandMinMaxFactors(intersections, count);
 			intersects = intersected = true;
 		}
 		final double radius2 = radius + speed;
-		pnts = Tools.intersectRectCircle(target.x - 18, target.y - 18, 36, 36, x, y, radius2);
-		if(pnts.length != 0) {
-			expandMinMaxFactors(pnts);
+		count = Tools.intersectRectCircle(target.x - 18, target.y - 18, 36, 36, x, y, radius2, intersections);
+		if(count != 0) {
+			expandMinMaxFactors(intersections, count);
 			intersects = intersected = true;
 		}
 		// corners
-		for(final double[] pnt : new double[][] {
-			{ target.x - 18, target.y - 18 },
-			{ target.x + 18, target.y - 18 },
-			{ target.x - 18, target.y + 18 },
-			{ target.x + 18, target.y + 18 } }) {
-			
-			final double dist = distanceSq(pnt[0], pnt[1]);
-			if(dist < radius2 * radius2 && dist > radius * radius) {
-				expandMinMaxFactors(pnt);
-			}
+		final double innerSq = radius * radius;
+		final double outerSq = radius2 * radius2;
+		final double left = target.x - 18;
+		final double right = target.x + 18;
+		final double bottom = target.y - 18;
+		final double top = target.y + 18;
+		if(Tools.isBetweenCircles(left, bottom, x, y, innerSq, outerSq)) {
+			expandMinMaxFactor(left, bottom);
+		}
+		if(Tools.isBetweenCircles(right, bottom, x, y, innerSq, outerSq)) {
+			expandMinMaxFactor(right, bottom);
+		}
+		if(Tools.isBetweenCircles(left, top, x, y, innerSq, outerSq)) {
+			expandMinMaxFactor(left, top);
+		}
+		if(Tools.isBetweenCircles(right, top, x, y, innerSq, outerSq)) {
+			expandMinMaxFactor(right, top);
 		}
 		if(!intersects && intersected) {
 			completed = true;
@@ -0,0 +1,98 @@
+/**
+ * Copyright (c) 2012-2017 Robert Maupin (Chase)
+ *
+ * This software is provided 'as-is', without any express or implied
+ * warranty. In no event will the authors be held liable for any damages
+ * arising from the use of this software.
+ *
+ * Permission is granted to anyone to use this software for any purpose,
+ * including commercial applications, and to alter it and redistribute it
+ * freely, subject to the following restrictions:
+ *
+ *    1. The origin of this software must not be misrepresented; you must not
+ *    claim that you wrote the original software. If you use this software
+ *    in a product, an acknowledgment in the product documentation would be
+ *    appreciated but is not required.
+ *
+ *    2. Altered source versions must be plainly marked as such, and must not be
+ *    misrepresented as being the original software.
+ *
+ *    3. This notice may not be removed or altered from any source
+ *    distribution.
+ */
+package cs.util;
+
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.PriorityQueue;
+
+/**
+ * Holds waves that are too far from the target to touch it asleep, in order
+ * of when they could first touch it. Only the waves that are awake need to be
+ * updated each turn.
+ *
+ * @author Robert Maupin (Chase)
+ *
+ */
+public class WaveScheduler<W extends Wave> implements Iterable<W> {
+	private static final Comparator<Wave> WAKE_ORDER = new Comparator<Wave>() {
+		public int compare(final Wave a, final Wave b) {
+			return a.wakeTime < b.wakeTime ? -1 : a.wakeTime > b.wakeTime ? 1 : 0;
+		}
+	};
+
+	private final PriorityQueue<W> sleeping = new PriorityQueue<W>(64, WAKE_ORDER);
+	private final LinkedList<W> awake = new LinkedList<W>();
+
+	/**
+	 * Adds a wave, it is put to sleep if it cannot touch the target yet.
+	 *
+	 * @param wave
+	 *            The wave to add
+	 * @param time
+	 *            The current time
+	 * @param target
+	 *            The position of the target at the current time
+	 */
+	public void add(final W wave, final long time, final Vector target) {
+		wave.wakeTime = wave.getContactTime(time, target);
+		if(wave.wakeTime <= time) {
+			awake.add(wave);
+		} else {
+			sleeping.add(wave);
+		}
+	}
+
+	/**
+	 * Wakes the waves whose time has come. Since the target may not have come
+	 * straight at them, they may be put back to sleep until later.
+	 *
+	 * @param time
+	 *            The current time
+	 * @param target
+	 *            The position of the target at the current time
+	 */
+	public void wake(final long time, final Vector target) {
+		while(!sleeping.isEmpty() && sleeping.peek().wakeTime <= time) {
+			add(sleeping.poll(), time, target);
+		}
+	}
+
+	/**
+	 * Iterates over the waves that are awake. Waves may be removed through the
+	 * iterator.
+	 */
+	public Iterator<W> iterator() {
+		return awake.iterator();
+	}
+
+	/**
+	 * Gets the total number of waves, awake or asleep.
+	 *
+	 * @return the number of waves
+	 */
+	public int size() {
+		return awake.size() + sleeping.size();
+	}
+}
@@ -0,0 +1,126 @@
+/**
+ * Copyright (c) 2012-2017 Robert Maupin (Chase)
+ *
+ * This software is provided 'as-is', without any express or implied
+ * warranty. In no event will the authors be held liable for any damages
+ * arising from the use of this software.
+ *
+ * Permission is granted to anyone to use this software for any purpose,
+ * including commercial applications, and to alter it and redistribute it
+ * freely, subject to the following restrictions:
+ *
+ *    1. The origin of this software must not be misrepresented; you must not
+ *    claim that you wrote the original software. If you use this software
+ *    in a product, an acknowledgment in the product documentation would be
+ *    appreciated but is not required.
+ *
+ *    2. Altered source versions must be plainly marked as such, and must not be
+ *    misrepresented as being the original software.
+ *
+ *    3. This notice may not be removed or altered from any source
+ *    distribution.
+ */
+package cs.util;
+
+import java.util.Random;
+
+/**
+ * Checks the table based trigonometry against Math, and measures how much
+ * using it changes predicted positions and guess factors. Run from the ant
+ * test target, it exits with an error if any check fails.
+ */
+public class FastMathTest {
+	private static final int SAMPLES = 1000000;
+	private static final int PREDICTIONS = 20000;
+	private static final int PREDICTION_TURNS = 80;
+	private static final long SEED = 0x4D696E74L;
+	/** The documented error of sin and cos */
+	private static final double SIN_TOLERANCE = 3e-7;
+	/** The documented error of atan2 and asin, in radians */
+	private static final double ATAN_TOLERANCE = 2e-8;
+	/** The most predicted positions may differ, in pixels */
+	private static final double POSITION_TOLERANCE = 1e-3;
+	/** The most predicted guess factors may differ */
+	private static final double FACTOR_TOLERANCE = 1e-4;
+
+	public static void main(final String[] args) {
+		FastMath.exact = false;
+		final Random random = new Random(SEED);
+		double sin = 0;
+		double atan = 0;
+		for (int i = 0; i < SAMPLES; ++i) {
+			final double angle = (random.nextDouble() - 0.5) * 40;
+			sin = Math.max(sin, Math.abs(FastMath.sin(angle) - Math.sin(angle)));
+			sin = Math.max(sin, Math.abs(FastMath.cos(angle) - Math.cos(angle)));
+
+			final double y = (random.nextDouble() - 0.5) * 1000;
+			final double x = (random.nextDouble() - 0.5) * 1000;
+			atan = Math.max(atan, Math.abs(FastMath.atan2(y, x) - Math.atan2(y, x)));
+
+			final double value = random.nextDouble() * 2 - 1;
+			atan = Math.max(atan, Math.abs(FastMath.asin(value) - Math.asin(value)));
+		}
+		check("sin and cos", sin, SIN_TOLERANCE);
+		check("atan2 and asin", atan, ATAN_TOLERANCE);
+
+		double position = 0;
+		double factor = 0;
+		for (int i = 0; i < PREDICTIONS; ++i) {
+			final long seed = random.nextLong();
+			final double[] exact = predict(seed, true);
+			final double[] fast = predict(seed, false);
+			position = Math.max(position, Math.hypot(exact[0] - fast[0], exact[1] - fast[1]));
+			factor = Math.max(factor, Math.abs(exact[2] - fast[2]));
+			factor = Math.max(factor, Math.abs(exact[3] - fast[3]));
+		}
+		FastMath.exact = false;
+		check("predicted positions", position, POSITION_TOLERANCE);
+		check("predicted guess factors", factor, FACTOR_TOLERANCE);
+	}
+
+	private static void check(final String name, final double error, final double tolerance) {
+		if (error > tolerance) {
+			throw new AssertionError(name + " differ by " + error + ", more than " + tolerance);
+		}
+		System.out.println(name + " differ by at most " + error + ".");
+	}
+
+	/**
+	 * Moves a robot randomly past a wave, and returns its final position and
+	 * the guess factor range the wave saw it cover.
+	 */
+	private static double[] predict(final long seed, final boolean exact) {
+		FastMath.exact = exact;
+		final Random random = new Random(seed);
+		final Simulation sim = new Simulation();
+		sim.position.setLocation(200 + random.nextDouble() * 400, 150 + random.nextDouble() * 300);
+		sim.heading = random.nextDouble() * Math.PI * 2;
+		sim.velocity = random.nextDouble() * 8;
+		sim.direction = 1;
+		sim.maxVelocity = 8;
+
+		final Wave wave = new Wave();
+		wave.setLocation(random.nextDouble() * 800, random.nextDouble() * 600);
+		wave.power = 0.1 + random.nextDouble() * 2.9;
+		wave.speed = 20 - 3 * wave.power;
+		wave.fireTime = 0;
+		wave.directAngle = wave.angleTo(sim.position);
+		wave.escapeAngle = FastMath.asin(8 / wave.speed);
+
+		for (long time = 1; time <= PREDICTION_TURNS; ++time) {
+			sim.angleToTurn = (random.nextDouble() - 0.5) * 0.4;
+			if (random.nextDouble() < 0.05) {
+				sim.direction = -sim.direction;
+			}
+			sim.step();
+			if (!wave.isCompleted()) {
+				wave.update(time, sim.position);
+			}
+		}
+		if (!wave.isIntersected()) {
+			return new double[] { sim.position.x, sim.position.y, 0, 0 };
+		}
+		return new double[] { sim.position.x, sim.position.y, wave.factorRange.getMinimum(),
+				wave.factorRange.getMaximum() };
+	}
+}
@@ -0,0 +1,80 @@
+/**
+ * Copyright (c) 2012-2017 Robert Maupin (Chase)
+ *
+ * This software is provided 'as-is', without any express or implied
+ * warranty. In no event will the authors be held liable for any damages
+ * arising from the use of this software.
+ *
+ * Permission is granted to anyone to use this software for any purpose,
+ * including commercial applications, and to alter it and redistribute it
+ * freely, subject to the following restrictions:
+ *
+ *    1. The origin of this software must not be misrepresented; you must not
+ *    claim that you wrote the original software. If you use this software
+ *    in a product, an acknowledgment in the product documentation would be
+ *    appreciated but is not required.
+ *
+ *    2. Altered source versions must be plainly marked as such, and must not be
+ *    misrepresented as being the original software.
+ *
+ *    3. This notice may not be removed or altered from any source
+ *    distribution.
+ */
+package cs.util;
+
+import java.awt.geom.Rectangle2D;
+import java.util.Random;
+
+/**
+ * Checks the analytic orbital wall distance against the original sampled one.
+ * Run from the ant test target, it exits with an error if any check fails.
+ */
+public class ToolsTest {
+	private static final int SAMPLES = 200000;
+	private static final long SEED = 0x4D696E74L;
+	private static final double TOLERANCE = 0.005;
+
+	public static void main(final String[] args) {
+		final Rectangle2D.Double battlefield = new Rectangle2D.Double(18, 18, 764, 564);
+		final Random random = new Random(SEED);
+		double worst = 0;
+		for (int i = 0; i < SAMPLES; ++i) {
+			final Vector source = new Vector(random.nextDouble() * 800, random.nextDouble() * 600);
+			final Vector target = new Vector(18 + random.nextDouble() * 764, 18 + random.nextDouble() * 564);
+			final double power = 0.1 + random.nextDouble() * 2.9;
+			final int direction = random.nextBoolean() ? 1 : -1;
+
+			final double analytic = Tools.orbitalWallDistance(source, target, power, direction, battlefield);
+			final double sampled = sampledWallDistance(source, target, power, direction, battlefield);
+			final double error = Math.abs(analytic - sampled);
+			if (error > TOLERANCE) {
+				throw new AssertionError("orbitalWallDistance " + analytic + " differs from the sampled "
+						+ sampled + " from " + source.x + "," + source.y + " to " + target.x + "," + target.y
+						+ " at power " + power + " in direction " + direction);
+			}
+			worst = Math.max(worst, error);
+		}
+		System.out.println("orbitalWallDistance is within " + worst + " of the sampled version.");
+	}
+
+	/**
+	 * The original version of orbitalWallDistance, which steps along the orbit
+	 * a hundredth of the maximum escape angle at a time.
+	 */
+	static double sampledWallDistance(final Vector sourceLocation, final Vector targetLocation,
+			final double bulletPower, final int direction, final Rectangle2D.Double battlefield) {
+		final double absBearing = sourceLocation.angleTo(targetLocation);
+		final double distance = sourceLocation.distance(targetLocation);
+		final double maxEscapeAngle = Math.asin(8.0 / (20 - 3.0 * bulletPower));
+		double wallDistance = 2.0;
+		for (int x = 0; x < 200; x++) {
+			if (!battlefield.contains(
+					sourceLocation.x + Math.sin(absBearing + direction * (x / 100.0) * maxEscapeAngle) * distance,
+					sourceLocation.y + Math.cos(absBearing + direction * (x / 100.0) * maxEscapeAngle) * distance)) {
+				wallDistance = x / 100.0;
+				break;
+			}
+		}
+		return wallDistance;
+	}
+}